@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.fileviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Watches a set of directories and reports changes to their entries.
+ * <p>
+ * Directories are registered with the platform's WatchService. Events are
+ * collected until no new event has arrived for COALESCE_MILLIS, and are then
+ * reported as one batch. Each changed name is reported once, with its new
+ * attributes, or with null if it was removed, so a burst of events turns
+ * into one small diff. Directories that cannot be registered are polled
+ * every POLL_MILLIS, comparing their listing with the previous one.
+ * </p>
+ */
+class DirectoryWatcher {
+	static final long COALESCE_MILLIS = 100; // quiet time that ends a burst of events
+	static final long MAX_DELAY_MILLIS = 1000; // longest time that changes are held back during a burst
+	static final long POLL_MILLIS = 2000; // interval for directories without native watch support
+
+	/**
+	 * Receives the changes of the watched directories on the UI thread.
+	 */
+	interface Listener {
+		/**
+		 * @param changes the changed entries by directory, by name; the entry is null if it was removed
+		 * @param rescans the directories that lost events and have to be listed again
+		 */
+		void directoriesChanged(Map<File, Map<String, FileEntry>> changes, Set<File> rescans);
+	}
+
+	final Display display;
+	final Listener listener;
+	final WatchService service; // null if the platform has no watch service
+	final Map<File, WatchKey> keys = new HashMap<>(); // the registered directories
+	final Map<WatchKey, File> directories = new HashMap<>();
+	final Map<File, Map<String, FileEntry>> polled = new HashMap<>(); // the last listing of each polled directory
+	final Thread thread;
+	volatile boolean closed = false;
+
+	/**
+	 * Creates a watcher and starts its thread.
+	 *
+	 * @param display the display to report changes on
+	 * @param listener the listener that receives the changes
+	 */
+	DirectoryWatcher(final Display display, final Listener listener) {
+		this.display = display;
+		this.listener = listener;
+		WatchService watchService = null;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			// poll all directories
+		}
+		this.service = watchService;
+		this.thread = new Thread(this::run, "Directory Watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Sets the directories to watch. Directories that are not in the set any more
+	 * are no longer watched.
+	 *
+	 * @param dirs the directories to watch
+	 */
+	synchronized void setDirectories(final Set<File> dirs) {
+		for (final Iterator<Map.Entry<File, WatchKey>> i = this.keys.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<File, WatchKey> entry = i.next();
+			if (!dirs.contains(entry.getKey())) {
+				entry.getValue().cancel();
+				this.directories.remove(entry.getValue());
+				i.remove();
+			}
+		}
+		this.polled.keySet().retainAll(dirs);
+		for (final File dir : dirs) {
+			if (this.keys.containsKey(dir) || this.polled.containsKey(dir)) {
+				continue;
+			}
+			if (this.service == null) {
+				this.polled.put(dir, null); // listed by the watcher thread
+				continue;
+			}
+			try {
+				final WatchKey key = dir.toPath().register(this.service, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				this.keys.put(dir, key);
+				this.directories.put(key, dir);
+			} catch (IOException | UnsupportedOperationException | SecurityException e) {
+				this.polled.put(dir, null); // listed by the watcher thread
+			}
+		}
+	}
+
+	/**
+	 * Stops watching all directories.
+	 */
+	void close() {
+		this.closed = true;
+		if (this.service != null) {
+			try {
+				this.service.close();
+			} catch (final IOException e) {
+				// nothing left to release
+			}
+		}
+		this.thread.interrupt();
+	}
+
+	void run() {
+		long lastPoll = 0;
+		try {
+			while (!this.closed) {
+				final Map<File, Set<String>> names = new HashMap<>();
+				final Set<File> rescans = new HashSet<>();
+				if (this.service != null) {
+					WatchKey key = this.service.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					final long start = System.currentTimeMillis();
+					while (key != null) {
+						this.collect(key, names, rescans);
+						if ((System.currentTimeMillis() - start) >= MAX_DELAY_MILLIS) {
+							break;
+						}
+						key = this.service.poll(COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+					}
+				} else {
+					Thread.sleep(POLL_MILLIS);
+				}
+
+				// Read the current state of every changed entry
+				final Map<File, Map<String, FileEntry>> changes = new HashMap<>();
+				for (final Map.Entry<File, Set<String>> entry : names.entrySet()) {
+					final File dir = entry.getKey();
+					if (rescans.contains(dir)) {
+						continue;
+					}
+					final Map<String, FileEntry> entries = new HashMap<>();
+					for (final String name : entry.getValue()) {
+						final Path path = dir.toPath().resolve(name);
+						entries.put(name, Files.exists(path, LinkOption.NOFOLLOW_LINKS) ? FileEntry.read(dir, path) : null);
+					}
+					changes.put(dir, entries);
+				}
+				if ((System.currentTimeMillis() - lastPoll) >= POLL_MILLIS) {
+					this.poll(changes);
+					lastPoll = System.currentTimeMillis();
+				}
+				if (!changes.isEmpty() || !rescans.isEmpty()) {
+					this.display.asyncExec(() -> {
+						if (!this.closed) {
+							this.listener.directoriesChanged(changes, rescans);
+						}
+					});
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		} catch (final RuntimeException e) {
+			// the display was disposed
+			if (!this.closed && !this.display.isDisposed()) {
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Adds the names of the entries that an event was reported for.
+	 */
+	void collect(final WatchKey key, final Map<File, Set<String>> names, final Set<File> rescans) {
+		final File dir;
+		synchronized (this) {
+			dir = this.directories.get(key);
+		}
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null) {
+				continue; // no longer watched
+			}
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				rescans.add(dir);
+			} else {
+				names.computeIfAbsent(dir, k -> new HashSet<>()).add(event.context().toString());
+			}
+		}
+		if (!key.reset() && (dir != null)) {
+			// The directory is gone; its parent reports that
+			synchronized (this) {
+				this.keys.remove(dir);
+				this.directories.remove(key);
+			}
+		}
+	}
+
+	/*
+	 * Lists the polled directories and adds the differences to their last listings.
+	 */
+	void poll(final Map<File, Map<String, FileEntry>> changes) {
+		final Set<File> dirs;
+		synchronized (this) {
+			dirs = new HashSet<>(this.polled.keySet());
+		}
+		for (final File dir : dirs) {
+			final Map<String, FileEntry> listing = new HashMap<>();
+			for (final FileEntry entry : FileEntry.list(dir)) {
+				listing.put(entry.name, entry);
+			}
+			final Map<String, FileEntry> previous;
+			synchronized (this) {
+				if (!this.polled.containsKey(dir)) {
+					continue; // no longer watched
+				}
+				previous = this.polled.put(dir, listing);
+			}
+			if (previous == null) {
+				continue; // first listing
+			}
+			final Map<String, FileEntry> entries = new HashMap<>();
+			for (final FileEntry entry : listing.values()) {
+				final FileEntry old = previous.get(entry.name);
+				if ((old == null) || (old.directory != entry.directory) || (old.size != entry.size)
+						|| (old.lastModified != entry.lastModified)) {
+					entries.put(entry.name, entry);
+				}
+			}
+			for (final String name : previous.keySet()) {
+				if (!listing.containsKey(name)) {
+					entries.put(name, null);
+				}
+			}
+			if (!entries.isEmpty()) {
+				changes.put(dir, entries);
+			}
+		}
+	}
+}
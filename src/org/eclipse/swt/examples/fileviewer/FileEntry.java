@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.fileviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A directory entry together with the attributes that the viewer shows.
+ * <p>
+ * Listing a directory reads the basic attributes of every entry once,
+ * instead of asking the file system separately for the type, the size
+ * and the modification time of each file. Where the platform returns
+ * the attributes together with the directory entries, no further calls
+ * are made at all.
+ * </p>
+ */
+class FileEntry {
+	static final FileEntry[] NO_ENTRIES = new FileEntry[0];
+
+	final File file;
+	final String name;
+	final boolean directory;
+	final long size; // in bytes, 0 for directories
+	final long lastModified; // in milliseconds since the epoch
+
+	FileEntry(final File file, final String name, final boolean directory, final long size, final long lastModified) {
+		this.file = file;
+		this.name = name;
+		this.directory = directory;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Lists a directory in a single pass and sorts the entries by name.
+	 *
+	 * @param dir the directory to be listed
+	 * @return the entries of the directory, may be empty but not null
+	 */
+	static FileEntry[] list(final File dir) {
+		final List<FileEntry> entries = new ArrayList<>();
+		forEach(dir, entries::add);
+		final FileEntry[] result = entries.toArray(new FileEntry[entries.size()]);
+		NameOrder.DEFAULT.sort(result, entry -> entry.name);
+		return result;
+	}
+
+	/**
+	 * Reads the entries of a directory in a single pass, in the order in which
+	 * the file system returns them. Errors end the listing early.
+	 *
+	 * @param dir the directory to be listed
+	 * @param consumer receives each entry as soon as it is read, returns false to stop the listing
+	 */
+	static void forEach(final File dir, final Predicate<FileEntry> consumer) {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+			for (final Path path : stream) {
+				if (!consumer.test(read(dir, path))) {
+					return;
+				}
+			}
+		} catch (IOException | DirectoryIteratorException | SecurityException e) {
+			// the caller keeps what could be read
+		}
+	}
+
+	/*
+	 * Reads the attributes of one entry. Symbolic links are followed, like
+	 * File does; links that cannot be followed are shown as files.
+	 */
+	static FileEntry read(final File dir, final Path path) {
+		final String name = path.getFileName().toString();
+		final File file = new File(dir, name);
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (final IOException e) {
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (final IOException e2) {
+				return new FileEntry(file, name, false, 0, 0);
+			}
+		}
+		final boolean directory = attributes.isDirectory();
+		return new FileEntry(file, name, directory, directory ? 0 : attributes.size(),
+			attributes.lastModifiedTime().toMillis());
+	}
+}
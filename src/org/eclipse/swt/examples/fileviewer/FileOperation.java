@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.fileviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Copies, moves or deletes directory trees on a fork/join pool.
+ * <p>
+ * Every directory is a task that forks one subtask per entry, so large
+ * trees are listed and processed on all cores. The number of files that
+ * are read, written or deleted at the same time is bounded separately,
+ * since a disk does not get faster with more concurrent streams. Progress
+ * and cancellation are shared through atomics and volatile fields, so the
+ * UI thread only has to poll them to render the progress dialog.
+ * </p>
+ */
+class FileOperation {
+	static final int IO_CONCURRENCY = 4; // files read, written or deleted at the same time
+	static final long COPY_CHUNK_SIZE = 8 * 1024 * 1024; // bytes transferred between cancellation checks
+	static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	final boolean simulateOnly;
+	final Semaphore ioPermits = new Semaphore(IO_CONCURRENCY);
+	final long startTime = System.nanoTime();
+	final AtomicLong totalBytes = new AtomicLong(), doneBytes = new AtomicLong();
+	final AtomicInteger totalFiles = new AtomicInteger(), doneFiles = new AtomicInteger();
+	final Set<File> renamed = ConcurrentHashMap.newKeySet(); // sources that were moved by renaming them
+	volatile boolean cancelled = false;
+	volatile File currentFile = null; // the last file that an operation was started on
+	volatile int currentOperation = FileViewer.ProgressDialog.COPY;
+
+	/**
+	 * Creates a new file operation.
+	 *
+	 * @param simulateOnly if true, the file system is not changed
+	 */
+	FileOperation(final boolean simulateOnly) {
+		this.simulateOnly = simulateOnly;
+	}
+
+	/**
+	 * Creates a task that copies a file or entire directory structure.
+	 *
+	 * @param oldFile the location of the old file or directory
+	 * @param newFile the location of the new file or directory
+	 * @return a task whose result is true iff the operation succeeds without errors
+	 */
+	ForkJoinTask<Boolean> copy(final File oldFile, final File newFile) {
+		if (!isValidCopy(oldFile, newFile)) {
+			return ForkJoinTask.adapt(() -> Boolean.FALSE);
+		}
+		this.addTotal(oldFile);
+		return new CopyTask(oldFile, newFile);
+	}
+
+	/**
+	 * Creates a task that moves a file or entire directory structure. Within one
+	 * file system the source is renamed, which is atomic and does not touch the
+	 * contents; the renamed sources are collected in <code>renamed</code>. Otherwise
+	 * the source is copied, and it is up to the caller to delete it afterwards.
+	 *
+	 * @param oldFile the location of the old file or directory
+	 * @param newFile the location of the new file or directory
+	 * @return a task whose result is true iff the operation succeeds without errors
+	 */
+	ForkJoinTask<Boolean> move(final File oldFile, final File newFile) {
+		if (!isValidCopy(oldFile, newFile)) {
+			return ForkJoinTask.adapt(() -> Boolean.FALSE);
+		}
+		this.addTotal(oldFile);
+		return new RecursiveTask<Boolean>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected Boolean compute() {
+				if (FileOperation.this.rename(oldFile, newFile)) {
+					return Boolean.TRUE;
+				}
+				return new CopyTask(oldFile, newFile).compute();
+			}
+		};
+	}
+
+	/**
+	 * Creates a task that deletes a file or entire directory structure.
+	 *
+	 * @param oldFile the location of the old file or directory
+	 * @return a task whose result is true iff the operation succeeds without errors
+	 */
+	ForkJoinTask<Boolean> delete(final File oldFile) {
+		if (oldFile == null) {
+			return ForkJoinTask.adapt(() -> Boolean.FALSE);
+		}
+		this.totalFiles.incrementAndGet();
+		return new DeleteTask(oldFile);
+	}
+
+	/**
+	 * Runs the given tasks on the pool. The display is woken up once all
+	 * of them are done, so the UI thread can wait for them in its event loop.
+	 *
+	 * @param display the display to wake up
+	 * @param tasks the tasks created by this operation
+	 * @return the task running all of the given tasks
+	 */
+	ForkJoinTask<?> start(final Display display, final List<ForkJoinTask<Boolean>> tasks) {
+		return POOL.submit(() -> {
+			try {
+				ForkJoinTask.invokeAll(tasks);
+			} finally {
+				if (!display.isDisposed()) {
+					display.wake();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the operation as soon as possible. Running tasks finish with a result of false.
+	 */
+	void cancel() {
+		this.cancelled = true;
+	}
+
+	/*
+	 * Returns false if newFile is oldFile or lies inside of it.
+	 */
+	static boolean isValidCopy(final File oldFile, final File newFile) {
+		if ((oldFile == null) || (newFile == null)) {
+			return false;
+		}
+		File searchFile = newFile;
+		do {
+			if (oldFile.equals(searchFile)) {
+				return false;
+			}
+			searchFile = searchFile.getParentFile();
+		} while (searchFile != null);
+		return true;
+	}
+
+	void addTotal(final File file) {
+		this.totalFiles.incrementAndGet();
+		if (file.isFile()) {
+			this.totalBytes.addAndGet(file.length());
+		}
+	}
+
+	void setCurrentFile(final File file, final int operation) {
+		this.currentOperation = operation;
+		this.currentFile = file;
+	}
+
+	/*
+	 * Renames oldFile to newFile if both are in the same file store and
+	 * newFile does not exist yet.
+	 */
+	boolean rename(final File oldFile, final File newFile) {
+		final Path oldPath = oldFile.toPath(), newPath = newFile.toPath();
+		final long bytes = oldFile.isFile() ? oldFile.length() : 0;
+		try {
+			if (newFile.exists() || !Files.getFileStore(oldPath).equals(Files.getFileStore(newPath.getParent()))) {
+				return false;
+			}
+			this.setCurrentFile(oldFile, FileViewer.ProgressDialog.MOVE);
+			if (!this.simulateOnly) {
+				Files.move(oldPath, newPath, StandardCopyOption.ATOMIC_MOVE);
+			}
+		} catch (IOException | SecurityException e) {
+			return false;
+		}
+		this.renamed.add(oldFile);
+		this.doneBytes.addAndGet(bytes);
+		this.doneFiles.incrementAndGet();
+		return true;
+	}
+
+	/*
+	 * Takes an I/O permit. The wait is reported to the pool as a managed
+	 * block, so it can start a spare worker while its tasks wait for the disk.
+	 */
+	void acquireIoPermit() {
+		final ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+			boolean acquired;
+
+			@Override
+			public boolean block() {
+				if (!this.acquired) {
+					FileOperation.this.ioPermits.acquireUninterruptibly();
+					this.acquired = true;
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return this.acquired || (this.acquired = FileOperation.this.ioPermits.tryAcquire());
+			}
+		};
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		} catch (final InterruptedException e) {
+			// not thrown, the blocker waits uninterruptibly
+		}
+	}
+
+	/*
+	 * Copies a single file while holding an I/O permit.
+	 */
+	boolean copyFile(final File oldFile, final File newFile) {
+		if (this.simulateOnly) {
+			this.doneBytes.addAndGet(oldFile.length());
+			return true;
+		}
+		this.acquireIoPermit();
+		try (FileChannel in = FileChannel.open(oldFile.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(newFile.toPath(), StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final long size = in.size();
+			long position = 0;
+			while (position < size) {
+				if (this.cancelled) {
+					return false;
+				}
+				final long count = in.transferTo(position, Math.min(COPY_CHUNK_SIZE, size - position), out);
+				if (count <= 0) {
+					break; // the file was truncated while copying
+				}
+				position += count;
+				this.doneBytes.addAndGet(count);
+			}
+		} catch (final IOException e) {
+			return false;
+		} finally {
+			this.ioPermits.release();
+		}
+		copyAttributes(oldFile, newFile);
+		return true;
+	}
+
+	/**
+	 * Copies the last modified time and, where the file system supports them,
+	 * the POSIX permissions of a file or directory. Failures are ignored since
+	 * the contents have already been copied.
+	 *
+	 * @param oldFile the original file or directory
+	 * @param newFile the copy
+	 */
+	static void copyAttributes(final File oldFile, final File newFile) {
+		final Path oldPath = oldFile.toPath(), newPath = newFile.toPath();
+		try {
+			Files.setLastModifiedTime(newPath, Files.getLastModifiedTime(oldPath));
+			Files.setPosixFilePermissions(newPath, Files.getPosixFilePermissions(oldPath));
+		} catch (IOException | UnsupportedOperationException e) {
+			// keep whatever attributes the copy got
+		}
+	}
+
+	/*
+	 * Waits for all of the given subtasks and returns true iff all of them succeeded.
+	 */
+	static boolean invokeAll(final List<? extends ForkJoinTask<Boolean>> tasks) {
+		ForkJoinTask.invokeAll(tasks);
+		for (final ForkJoinTask<Boolean> task : tasks) {
+			if (!task.join().booleanValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Copies a file, or a directory by forking one task per entry.
+	 */
+	class CopyTask extends RecursiveTask<Boolean> {
+		private static final long serialVersionUID = 1L;
+		final File oldFile, newFile;
+
+		CopyTask(final File oldFile, final File newFile) {
+			this.oldFile = oldFile;
+			this.newFile = newFile;
+		}
+
+		@Override
+		protected Boolean compute() {
+			if (FileOperation.this.cancelled) {
+				return Boolean.FALSE;
+			}
+			try {
+				FileOperation.this.setCurrentFile(this.oldFile, FileViewer.ProgressDialog.COPY);
+				if (!this.oldFile.isDirectory()) {
+					final boolean result = FileOperation.this.copyFile(this.oldFile, this.newFile);
+					FileOperation.this.doneFiles.incrementAndGet();
+					return Boolean.valueOf(result);
+				}
+				if (!FileOperation.this.simulateOnly && !this.newFile.mkdirs()) {
+					return Boolean.FALSE;
+				}
+				final File[] subFiles = this.oldFile.listFiles();
+				if (subFiles != null) {
+					final List<CopyTask> tasks = new ArrayList<>(subFiles.length);
+					for (final File subFile : subFiles) {
+						FileOperation.this.addTotal(subFile);
+						tasks.add(new CopyTask(subFile, new File(this.newFile, subFile.getName())));
+					}
+					if (!FileOperation.invokeAll(tasks)) {
+						return Boolean.FALSE;
+					}
+				}
+				if (!FileOperation.this.simulateOnly) {
+					copyAttributes(this.oldFile, this.newFile);
+				}
+				FileOperation.this.doneFiles.incrementAndGet();
+				return Boolean.valueOf(!FileOperation.this.cancelled);
+			} catch (final SecurityException e) {
+				return Boolean.FALSE;
+			}
+		}
+	}
+
+	/*
+	 * Deletes a file, or a directory after forking one task per entry.
+	 */
+	class DeleteTask extends RecursiveTask<Boolean> {
+		private static final long serialVersionUID = 1L;
+		final File oldFile;
+
+		DeleteTask(final File oldFile) {
+			this.oldFile = oldFile;
+		}
+
+		@Override
+		protected Boolean compute() {
+			if (FileOperation.this.cancelled) {
+				return Boolean.FALSE;
+			}
+			try {
+				FileOperation.this.setCurrentFile(this.oldFile, FileViewer.ProgressDialog.DELETE);
+				if (this.oldFile.isDirectory()) {
+					final File[] subFiles = this.oldFile.listFiles();
+					if (subFiles != null) {
+						FileOperation.this.totalFiles.addAndGet(subFiles.length);
+						final List<DeleteTask> tasks = new ArrayList<>(subFiles.length);
+						for (final File subFile : subFiles) {
+							tasks.add(new DeleteTask(subFile));
+						}
+						if (!FileOperation.invokeAll(tasks) || FileOperation.this.cancelled) {
+							return Boolean.FALSE;
+						}
+					}
+				}
+				boolean result = true;
+				if (!FileOperation.this.simulateOnly) {
+					FileOperation.this.acquireIoPermit();
+					try {
+						result = this.oldFile.delete();
+					} finally {
+						FileOperation.this.ioPermits.release();
+					}
+				}
+				FileOperation.this.doneFiles.incrementAndGet();
+				return Boolean.valueOf(result);
+			} catch (final SecurityException e) {
+				return Boolean.FALSE;
+			}
+		}
+	}
+}
@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.fileviewer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches a directory tree for files by name and, optionally, by content.
+ * <p>
+ * The tree is walked with Files.walkFileTree. Every directory up to
+ * SPLIT_DEPTH levels below the root is walked by a task of its own, so
+ * the branches of the tree are read in parallel. Names are matched with
+ * a glob or a regular expression against the whole name; contents are
+ * scanned through memory-mapped buffers. Results are collected until
+ * the UI takes them.
+ * </p><p>
+ * A walk can also write a name index for its root: a flat file with the
+ * relative path of every entry. Later searches of the same root scan the
+ * index in parallel instead of the file system, and only read the
+ * attributes of the entries that match. Every walk of a search that uses
+ * the index rewrites it, and an index is not used once the root has changed after it was written, or
+ * once it is older than INDEX_MAX_AGE, since changes deeper in the tree
+ * do not change the root.
+ * </p>
+ */
+class FileSearch {
+	static final int SPLIT_DEPTH = 2; // directories up to this depth below the root are walked by tasks of their own
+	static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024; // largest part of a file that is mapped at once
+	static final long INDEX_MAX_AGE = 60L * 60 * 1000; // milliseconds after which a name index is written again
+	static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+	final Path root;
+	final PathMatcher matcher;
+	final byte[] content; // the text that matching files contain, null to match names only
+	final List<FileEntry> results = new ArrayList<>(); // the results that the UI has not taken yet
+	final AtomicInteger examined = new AtomicInteger();
+	Writer indexWriter = null; // receives the entries while a walk writes the name index
+	volatile boolean cancelled = false;
+	volatile boolean indexFailed = false; // true if the name index could not be written completely
+	volatile boolean indexed = false; // true if the results come from the name index
+	volatile boolean done = false;
+
+	/**
+	 * Creates a search.
+	 *
+	 * @param root the directory to search
+	 * @param pattern the pattern that the names of the results match
+	 * @param regex true if the pattern is a regular expression, false if it is a glob
+	 * @param content the text that the results contain, or an empty string
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	FileSearch(final File root, final String pattern, final boolean regex, final String content) {
+		this.root = root.toPath();
+		this.matcher = FileSystems.getDefault().getPathMatcher((regex ? "regex:" : "glob:")
+			+ (pattern.isEmpty() ? "*" : pattern));
+		this.content = content.isEmpty() ? null : content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Runs the search on the calling thread.
+	 *
+	 * @param useIndex true to search the name index of the root if it is up to date,
+	 *        and to write it otherwise; false to walk the tree without touching the index
+	 */
+	void run(final boolean useIndex) {
+		try {
+			final Path index = useIndex ? indexFile(this.root) : null;
+			if ((index == null) || !this.searchIndex(index)) {
+				this.walk(index);
+			}
+		} finally {
+			this.done = true;
+		}
+	}
+
+	/**
+	 * Stops the search. Results that were found so far are kept.
+	 */
+	void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Returns the results that were found since the last call.
+	 *
+	 * @return the new results, may be empty but not null
+	 */
+	FileEntry[] takeResults() {
+		synchronized (this.results) {
+			final FileEntry[] entries = this.results.toArray(new FileEntry[this.results.size()]);
+			this.results.clear();
+			return entries;
+		}
+	}
+
+	/**
+	 * Returns the file that holds the name index of a directory. The file is
+	 * named by the SHA-256 digest of the path, so every root has a file of its own.
+	 *
+	 * @param root the directory
+	 * @return the index file, which need not exist
+	 */
+	static Path indexFile(final Path root) {
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(root.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform supports SHA-256
+		}
+		final StringBuilder key = new StringBuilder(digest.length * 2);
+		for (final byte b : digest) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return Paths.get(System.getProperty("user.home"), ".swt-fileviewer", "index", key + ".idx");
+	}
+
+	/*
+	 * Returns whether an index was written after the last change of the root,
+	 * and less than INDEX_MAX_AGE ago.
+	 */
+	boolean isCurrent(final Path index) {
+		try {
+			final long written = Files.getLastModifiedTime(index).toMillis();
+			return (Files.getLastModifiedTime(this.root).toMillis() < written)
+				&& ((System.currentTimeMillis() - written) < INDEX_MAX_AGE);
+		} catch (final IOException e) {
+			return false; // no index yet
+		}
+	}
+
+	/*
+	 * Walks the tree, and writes a new name index if one is given.
+	 */
+	void walk(final Path index) {
+		Path temp = null;
+		if (index != null) {
+			try {
+				Files.createDirectories(index.getParent());
+				temp = Files.createTempFile(index.getParent(), index.getFileName().toString(), ".tmp");
+				this.indexWriter = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+				this.indexWriter.write(this.root.toString());
+				this.indexWriter.write('\n');
+			} catch (final IOException e) {
+				this.indexWriter = null; // search without an index
+			}
+		}
+		try {
+			POOL.invoke(new WalkTask(this.root));
+		} finally {
+			if (this.indexWriter != null) {
+				try {
+					this.indexWriter.close();
+					if (!this.cancelled && !this.indexFailed) {
+						// Readers see either the old or the new index
+						Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					}
+				} catch (final IOException e) {
+					// the old index stays in place
+				}
+				try {
+					Files.deleteIfExists(temp);
+				} catch (final IOException e) {
+					// left behind in the index directory
+				}
+			}
+		}
+	}
+
+	/*
+	 * Searches the name index, reading it line by line. Returns false if there
+	 * is no current index for the root.
+	 */
+	boolean searchIndex(final Path index) {
+		if (!this.isCurrent(index)) {
+			return false;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+			if (!this.root.toString().equals(reader.readLine())) {
+				return false; // not written for this root
+			}
+			this.indexed = true;
+			// Run the parallel stream in the search pool instead of the common pool
+			POOL.submit(() -> reader.lines().parallel().forEach(this::searchIndexEntry)).join();
+		} catch (IOException | UncheckedIOException e) {
+			return this.indexed; // the results found before the error are kept
+		}
+		return true;
+	}
+
+	void searchIndexEntry(final String line) {
+		if (this.cancelled) {
+			return;
+		}
+		this.examined.incrementAndGet();
+		final boolean directory = line.endsWith(File.separator);
+		final String relative = directory ? line.substring(0, line.length() - 1) : line;
+		final String name = relative.substring(relative.lastIndexOf(File.separatorChar) + 1);
+		if ((directory && (this.content != null)) || !this.matchesName(name)) {
+			return;
+		}
+		final Path path = this.root.resolve(relative);
+		if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			return; // removed since the index was written
+		}
+		final FileEntry entry = FileEntry.read(path.getParent().toFile(), path);
+		if ((this.content == null) || (!entry.directory && this.contains(path))) {
+			this.addResult(entry);
+		}
+	}
+
+	boolean matchesName(final String name) {
+		try {
+			return this.matcher.matches(Paths.get(name));
+		} catch (final InvalidPathException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Called for every entry of the tree except the root.
+	 */
+	void visit(final Path path, final BasicFileAttributes attributes) {
+		this.examined.incrementAndGet();
+		final boolean directory = attributes.isDirectory();
+		if ((this.indexWriter != null) && !this.indexFailed) {
+			this.writeIndexEntry(path, directory);
+		}
+		if (!this.matcher.matches(path.getFileName())) {
+			return;
+		}
+		if ((this.content != null) && (!attributes.isRegularFile() || !this.contains(path))) {
+			return;
+		}
+		this.addResult(new FileEntry(path.toFile(), path.getFileName().toString(), directory,
+			directory ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis()));
+	}
+
+	void writeIndexEntry(final Path path, final boolean directory) {
+		final String line = this.root.relativize(path).toString();
+		if ((line.indexOf('\n') != -1) || (line.indexOf('\r') != -1)) {
+			return; // cannot be stored in the index, only found by walking
+		}
+		try {
+			synchronized (this.indexWriter) {
+				this.indexWriter.write(line);
+				if (directory) {
+					this.indexWriter.write(File.separatorChar);
+				}
+				this.indexWriter.write('\n');
+			}
+		} catch (final IOException e) {
+			this.indexFailed = true; // an incomplete index must not replace the old one, the walk goes on
+		}
+	}
+
+	void addResult(final FileEntry entry) {
+		synchronized (this.results) {
+			this.results.add(entry);
+		}
+	}
+
+	/**
+	 * Returns whether a file contains the search text. The file is mapped
+	 * into memory in chunks of MAP_CHUNK_SIZE bytes that overlap by the
+	 * length of the text, so matches across chunk borders are found.
+	 *
+	 * @param path the file to scan
+	 * @return true if the file contains the text, false if it does not or cannot be read
+	 */
+	boolean contains(final Path path) {
+		final byte[] text = this.content;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			for (long position = 0; (position + text.length) <= size; position += MAP_CHUNK_SIZE) {
+				if (this.cancelled) {
+					return false;
+				}
+				final long length = Math.min(size - position, MAP_CHUNK_SIZE + text.length - 1);
+				if (indexOf(channel.map(FileChannel.MapMode.READ_ONLY, position, length), text) != -1) {
+					return true;
+				}
+			}
+		} catch (IOException | SecurityException e) {
+			// unreadable files do not match
+		}
+		return false;
+	}
+
+	/**
+	 * Finds a sequence of bytes in a buffer.
+	 *
+	 * @param buffer the buffer to search, from 0 to its limit
+	 * @param text the bytes to find, not empty
+	 * @return the index of the first occurrence, or -1 if there is none
+	 */
+	static int indexOf(final ByteBuffer buffer, final byte[] text) {
+		final byte first = text[0];
+		final int last = buffer.limit() - text.length;
+		search: for (int i = 0; i <= last; i++) {
+			if (buffer.get(i) != first) {
+				continue;
+			}
+			for (int j = 1; j < text.length; j++) {
+				if (buffer.get(i + j) != text[j]) {
+					continue search;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Walks one directory. Subdirectories up to SPLIT_DEPTH are forked
+	 * as tasks of their own and skipped by this walk.
+	 */
+	class WalkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final Path start;
+
+		WalkTask(final Path start) {
+			this.start = start;
+		}
+
+		@Override
+		protected void compute() {
+			final List<WalkTask> forks = new ArrayList<>();
+			try {
+				Files.walkFileTree(this.start, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attributes) {
+						if (FileSearch.this.cancelled) {
+							return FileVisitResult.TERMINATE;
+						}
+						if (dir.equals(WalkTask.this.start)) {
+							return FileVisitResult.CONTINUE; // visited by the parent walk
+						}
+						FileSearch.this.visit(dir, attributes);
+						if (FileSearch.this.root.relativize(dir).getNameCount() <= SPLIT_DEPTH) {
+							final WalkTask task = new WalkTask(dir);
+							task.fork();
+							forks.add(task);
+							return FileVisitResult.SKIP_SUBTREE;
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+						if (FileSearch.this.cancelled) {
+							return FileVisitResult.TERMINATE;
+						}
+						FileSearch.this.visit(file, attributes);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+						return FileVisitResult.CONTINUE; // unreadable entries are skipped
+					}
+
+					@Override
+					public FileVisitResult postVisitDirectory(final Path dir, final IOException e) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (final IOException e) {
+				// the directory could not be read
+			}
+			for (int i = forks.size() - 1; i >= 0; i--) {
+				forks.get(i).join();
+			}
+		}
+	}
+}
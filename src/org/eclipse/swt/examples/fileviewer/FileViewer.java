@@ -17,16 +17,25 @@ package org.eclipse.swt.examples.fileviewer;
 import static org.eclipse.swt.events.SelectionListener.widgetSelectedAdapter;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
@@ -45,6 +54,7 @@ import org.eclipse.swt.events.ShellListener;
 import org.eclipse.swt.events.TreeAdapter;
 import org.eclipse.swt.events.TreeEvent;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.GridData;
@@ -55,6 +65,7 @@ import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
 import org.eclipse.swt.widgets.MessageBox;
@@ -63,6 +74,7 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.swt.widgets.ToolBar;
 import org.eclipse.swt.widgets.ToolItem;
 import org.eclipse.swt.widgets.Tree;
@@ -84,6 +96,9 @@ public class FileViewer {
 
 	private Label numObjectsLabel;
 	private Label diskSpaceLabel;
+	private final SizeAggregator sizeAggregator = new SizeAggregator();
+	private SizeAggregator.Job sizeJob = null; // computes the totals of the selected files
+	private static final int SIZE_UPDATE_INTERVAL = 200; // ms between updates of the totals
 
 	private File currentDirectory = null;
 	private boolean initial = true;
@@ -96,6 +111,7 @@ public class FileViewer {
 	private File[]  deferredRefreshFiles = null;      // to defer notifyRefreshFiles while we do DND
 	private boolean deferredRefreshRequested = false; // to defer notifyRefreshFiles while we do DND
 	private ProgressDialog progressDialog = null; // progress dialog for locally-initiated operations
+	private SearchDialog searchDialog = null; // find files dialog, null if it is not open
 
 	/* Combo view */
 	private static final String COMBODATA_ROOTS = "Combo.roots";
@@ -118,10 +134,25 @@ public class FileViewer {
 
 	private Tree tree;
 	private Label treeScopeLabel;
+	private final Map<File, TreeItem> treeIndex = new HashMap<>();
+		// TreeItem: the item of every directory in the tree, so items are found without scanning
+	private final Listener treeItemDisposeListener = event ->
+		this.treeIndex.remove(event.widget.getData(TREEITEMDATA_FILE), event.widget);
+	private final Map<TreeItem, TreeLoad> treeLoads = new HashMap<>();
+		// TreeLoad: pending listing of an expanded tree item, only touched on the UI thread
+	private static final ExecutorService treeLoader = Executors.newFixedThreadPool(2, runnable -> {
+		final Thread thread = new Thread(runnable, "Tree Loader");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	/* Table view */
 	private static final DateFormat dateFormat = DateFormat.getDateTimeInstance(
 		DateFormat.MEDIUM, DateFormat.MEDIUM);
+	private static final String[] sizeStrings = new String[1024];
+		// String: formatted sizes of files up to 1 MB, indexed by kilobytes, filled in lazily
+	private final Map<String, FileType> fileTypes = new ConcurrentHashMap<>();
+		// FileType: type of the files with a given extension, shared by all threads
 	private static final String TABLEITEMDATA_FILE = "TableItem.file";
 		// File: File associated with table row
 	private static final String TABLEDATA_DIR = "Table.dir";
@@ -135,6 +166,11 @@ public class FileViewer {
 	};
 	private Table table;
 	private Label tableContentsOfLabel;
+	private TableRow[] tableRows = new TableRow[0]; // rows published by the worker, table is VIRTUAL
+	private Object tableListing = null; // identifies the listing that tableRows belongs to
+	private boolean tableListingComplete = false; // true once all rows of the listing are published
+	private static final int TABLE_BATCH_ROWS = 256; // rows computed before they are published
+	private static final long TABLE_BATCH_NANOS = 16000000L; // time after which computed rows are published
 
 	/* Table update worker */
 	// Control data
@@ -153,10 +189,16 @@ public class FileViewer {
 	// State information to use for the next cycle
 	private volatile File workerNextDir = null;
 
+	/* Live refresh */
+	private DirectoryWatcher watcher = null; // watches the current directory and the expanded tree items
+
 	/* Simulate only flag */
 	// when true, disables actual filesystem manipulations and outputs results to standard out
 	private boolean simulateOnly = true;
 
+	/* File operations */
+	private static final int PROGRESS_INTERVAL = 50; // milliseconds between progress dialog updates
+
 	/**
 	 * Runs main program.
 	 */
@@ -180,8 +222,18 @@ public class FileViewer {
 		// Create the window
 		this.display = display;
 		this.iconCache.initResources(display);
+		this.iconCache.setEvictionListener(() -> {
+			// let the virtual table ask for the icons of the visible rows again
+			if ((this.table != null) && ! this.table.isDisposed()) {
+				this.table.clearAll();
+			}
+			if (this.searchDialog != null) {
+				this.searchDialog.table.clearAll();
+			}
+		});
 		this.shell = new Shell();
 		this.createShellContents();
+		this.watcher = new DirectoryWatcher(display, this::notifyChangedFiles);
 		this.notifyRefreshFiles(null);
 		this.shell.open();
 		return this.shell;
@@ -191,6 +243,9 @@ public class FileViewer {
 	 * Closes the main program.
 	 */
 	void close() {
+		if (this.watcher != null) {
+			this.watcher.close();
+		}
 		this.workerStop();
 		this.iconCache.freeResources();
 	}
@@ -210,6 +265,9 @@ public class FileViewer {
 		}
 	}
 
+	// Compiled message formats, at most one per key of the resource bundle
+	private static final Map<String, MessageFormat> messageFormats = new ConcurrentHashMap<>();
+
 	/**
 	 * Returns a string from the resource bundle and binds it
 	 * with the given arguments. If the key is not found,
@@ -217,7 +275,11 @@ public class FileViewer {
 	 */
 	static String getResourceString(final String key, final Object[] args) {
 		try {
-			return MessageFormat.format(getResourceString(key), args);
+			final MessageFormat format = messageFormats.computeIfAbsent(key,
+				k -> new MessageFormat(getResourceString(k)));
+			synchronized (format) {
+				return format.format(args);
+			}
 		} catch (final MissingResourceException e) {
 			return key;
 		} catch (final NullPointerException e) {
@@ -366,7 +428,7 @@ public class FileViewer {
 		item = new ToolItem(this.toolBar, SWT.PUSH);
 		item.setImage(this.iconCache.stockImages[this.iconCache.cmdSearch]);
 		item.setToolTipText(getResourceString("tool.Search.tiptext"));
-		item.addSelectionListener(unimplementedListener);
+		item.addSelectionListener(widgetSelectedAdapter(e -> this.doSearch()));
 		item = new ToolItem(this.toolBar, SWT.PUSH);
 		item.setImage(this.iconCache.stockImages[this.iconCache.cmdPrint]);
 		item.setToolTipText(getResourceString("tool.Print.tiptext"));
@@ -456,6 +518,8 @@ public class FileViewer {
           item.setImage(image);
         }
 				FileViewer.this.treeExpandItem(item);
+				// the item is only expanded after this event
+				FileViewer.this.display.asyncExec(FileViewer.this::updateWatchedDirectories);
 			}
 			@Override
 			public void treeCollapsed(final TreeEvent event) {
@@ -464,6 +528,9 @@ public class FileViewer {
 				if (image != null) {
           item.setImage(image);
         }
+				final File dir = (File) item.getData(TREEITEMDATA_FILE);
+				FileViewer.this.treeCancelLoads(loadDir -> isAncestor(dir, loadDir));
+				FileViewer.this.display.asyncExec(FileViewer.this::updateWatchedDirectories);
 			}
 		});
 		this.createTreeDragSource(this.tree);
@@ -565,6 +632,34 @@ public class FileViewer {
 	 * @param item the TreeItem to fill in
 	 */
 	private void treeExpandItem(final TreeItem item) {
+		final Object stub = item.getData(TREEITEMDATA_STUB);
+		if (stub != null) {
+      return;
+    }
+		final File dir = (File) item.getData(TREEITEMDATA_FILE);
+		if (dir == null) {
+      return;
+    }
+		treeItemRemoveAll(item);
+		final TreeItem placeholder = new TreeItem(item, SWT.NONE);
+		placeholder.setText(getResourceString("tree.Loading.text"));
+		item.setData(TREEITEMDATA_STUB, this); // clear stub flag, the listing is on its way
+		final TreeLoad load = new TreeLoad(item, dir);
+		this.treeLoads.put(item, load);
+		load.future = treeLoader.submit(load);
+	}
+
+	/**
+	 * Populates a tree item synchronously, for when its children are needed right away.
+	 *
+	 * @param item the item to populate
+	 */
+	private void treePopulateItem(final TreeItem item) {
+		final TreeLoad load = this.treeLoads.remove(item);
+		if (load != null) {
+			load.cancel();
+			item.setData(TREEITEMDATA_STUB, null);
+		}
 		this.shell.setCursor(this.iconCache.stockCursors[this.iconCache.cursorWait]);
 		final Object stub = item.getData(TREEITEMDATA_STUB);
 		if (stub == null) {
@@ -573,6 +668,155 @@ public class FileViewer {
 		this.shell.setCursor(this.iconCache.stockCursors[this.iconCache.cursorDefault]);
 	}
 
+	/**
+	 * Adds subdirectories that a background listing has found to its tree item.
+	 *
+	 * @param load the listing
+	 * @param entries the subdirectories that were found since the last call, in any order
+	 * @param done true iff the listing is complete
+	 */
+	private void treeAddLoaded(final TreeLoad load, final List<FileEntry> entries, final boolean done) {
+		final TreeItem dirItem = load.item;
+		if (dirItem.isDisposed()) {
+			this.treeLoads.remove(dirItem);
+			return;
+		}
+		// Merge the sorted entries into the sorted items, in front of the placeholder
+		NameOrder.DEFAULT.sort(entries, entry -> entry.name);
+		final TreeItem[] items = dirItem.getItems();
+		int index = 0;
+		int inserted = 0;
+		for (final FileEntry entry : entries) {
+			int compare = -1;
+			while (index < items.length) {
+				final File itemFile = (File) items[index].getData(TREEITEMDATA_FILE);
+				compare = (itemFile != null) ? compareNames(entry.name, itemFile.getName()) : -1;
+				if (compare <= 0) {
+          break;
+        }
+				++index;
+			}
+			if (compare == 0) {
+        continue; // already added by the directory watcher
+      }
+			final TreeItem newItem = new TreeItem(dirItem, SWT.NONE, index + inserted);
+			this.treeInitFolder(newItem, entry.file);
+			new TreeItem(newItem, SWT.NONE); // add a placeholder child item so we get the "expand" button
+			++inserted;
+		}
+		if (! done) {
+      return;
+    }
+		this.treeLoads.remove(dirItem);
+		for (final TreeItem item : dirItem.getItems()) {
+			if (item.getData(TREEITEMDATA_FILE) == null) {
+        item.dispose(); // the "loading" placeholder
+      }
+		}
+		if (dirItem.getItemCount() == 0) {
+			/* Error or no contents */
+			dirItem.setExpanded(false);
+		}
+		this.updateWatchedDirectories();
+	}
+
+	/**
+	 * Cancels the background listings of the tree items whose directories match.
+	 * The items go back to their unpopulated, collapsed state.
+	 *
+	 * @param matcher selects the directories whose listings are cancelled
+	 */
+	private void treeCancelLoads(final Predicate<File> matcher) {
+		for (final Iterator<TreeLoad> i = this.treeLoads.values().iterator(); i.hasNext();) {
+			final TreeLoad load = i.next();
+			if (! matcher.test(load.dir)) {
+        continue;
+      }
+			i.remove();
+			load.cancel();
+			final TreeItem item = load.item;
+			if (item.isDisposed()) {
+        continue;
+      }
+			treeItemRemoveAll(item);
+			new TreeItem(item, SWT.NONE); // placeholder child item to get "expand" button
+			item.setData(TREEITEMDATA_STUB, null);
+			if (item.getExpanded()) {
+				item.setExpanded(false);
+				final Image image = (Image) item.getData(TREEITEMDATA_IMAGECOLLAPSED);
+				if (image != null) {
+          item.setImage(image);
+        }
+			}
+		}
+	}
+
+	/**
+	 * Returns true iff a file is the given directory or lies inside of it.
+	 */
+	static boolean isAncestor(final File dir, File file) {
+		while (file != null) {
+			if (file.equals(dir)) {
+        return true;
+      }
+			file = file.getParentFile();
+		}
+		return false;
+	}
+
+	/**
+	 * Lists the subdirectories of a tree item on a background thread, and
+	 * hands them to the UI thread in batches as they are found.
+	 */
+	private class TreeLoad implements Runnable {
+		final TreeItem item;
+		final File dir;
+		volatile boolean cancelled = false;
+		Future<?> future;
+
+		TreeLoad(final TreeItem item, final File dir) {
+			this.item = item;
+			this.dir = dir;
+		}
+
+		@Override
+		public void run() {
+			final List<FileEntry> batch = new ArrayList<>();
+			final long[] batchTime = { System.nanoTime() };
+			FileEntry.forEach(this.dir, entry -> {
+				if (entry.directory) {
+					batch.add(entry);
+				}
+				if (! batch.isEmpty() && ((batch.size() >= TABLE_BATCH_ROWS)
+						|| ((System.nanoTime() - batchTime[0]) >= TABLE_BATCH_NANOS))) {
+					this.publish(new ArrayList<>(batch), false);
+					batch.clear();
+					batchTime[0] = System.nanoTime();
+				}
+				return ! this.cancelled;
+			});
+			this.publish(batch, true);
+		}
+
+		void publish(final List<FileEntry> entries, final boolean done) {
+			if (this.cancelled) {
+        return;
+      }
+			FileViewer.this.display.asyncExec(() -> {
+				if (! this.cancelled && (FileViewer.this.treeLoads.get(this.item) == this)) {
+					FileViewer.this.treeAddLoaded(this, entries, done);
+				}
+			});
+		}
+
+		void cancel() {
+			this.cancelled = true;
+			if (this.future != null) {
+				this.future.cancel(true);
+			}
+		}
+	}
+
 	/**
 	 * Traverse the entire tree and update only what has changed.
 	 *
@@ -591,7 +835,7 @@ public class FileViewer {
 				continue;
 			}
 			final File masterFile = masterFiles[masterIndex];
-			final int compare = compareFiles(masterFile, itemFile);
+			final int compare = compareNames(masterFile.getName(), itemFile.getName());
 			if (compare == 0) {
 				// same file, update it
 				this.treeRefreshItem(item, false);
@@ -640,7 +884,7 @@ public class FileViewer {
 		dirItem.setData(TREEITEMDATA_STUB, this); // clear stub flag
 
 		/* Get directory listing */
-		final File[] subFiles = (dir != null) ? FileViewer.getDirectoryList(dir) : null;
+		final FileEntry[] subFiles = (dir != null) ? FileViewer.getDirectoryList(dir) : null;
 		if ((subFiles == null) || (subFiles.length == 0)) {
 			/* Error or no contents */
 			treeItemRemoveAll(dirItem);
@@ -650,14 +894,14 @@ public class FileViewer {
 
 		/* Refresh sub-items */
 		final TreeItem[] items = dirItem.getItems();
-		final File[] masterFiles = subFiles;
+		final FileEntry[] masterFiles = subFiles;
 		int masterIndex = 0;
 		int itemIndex = 0;
-		File masterFile = null;
+		FileEntry masterFile = null;
 		for (int i = 0; i < items.length; ++i) {
 			while ((masterFile == null) && (masterIndex < masterFiles.length)) {
 				masterFile = masterFiles[masterIndex++];
-				if (! masterFile.isDirectory()) {
+				if (! masterFile.directory) {
           masterFile = null;
         }
 			}
@@ -669,7 +913,7 @@ public class FileViewer {
 				item.dispose();
 				continue;
 			}
-			final int compare = compareFiles(masterFile, itemFile);
+			final int compare = compareNames(masterFile.name, itemFile.getName());
 			if (compare == 0) {
 				// same file, update it
 				this.treeRefreshItem(item, false);
@@ -678,7 +922,7 @@ public class FileViewer {
 			} else if (compare < 0) {
 				// should appear before file, insert it
 				final TreeItem newItem = new TreeItem(dirItem, SWT.NONE, itemIndex);
-				this.treeInitFolder(newItem, masterFile);
+				this.treeInitFolder(newItem, masterFile.file);
 				new TreeItem(newItem, SWT.NONE); // add a placeholder child item so we get the "expand" button
 				masterFile = null;
 				++itemIndex;
@@ -691,14 +935,14 @@ public class FileViewer {
 		while ((masterFile != null) || (masterIndex < masterFiles.length)) {
 			if (masterFile != null) {
 				final TreeItem newItem = new TreeItem(dirItem, SWT.NONE);
-				this.treeInitFolder(newItem, masterFile);
+				this.treeInitFolder(newItem, masterFile.file);
 				new TreeItem(newItem, SWT.NONE); // add a placeholder child item so we get the "expand" button
 				if (masterIndex == masterFiles.length) {
           break;
         }
 			}
 			masterFile = masterFiles[masterIndex++];
-			if (! masterFile.isDirectory()) {
+			if (! masterFile.directory) {
         masterFile = null;
       }
 		}
@@ -715,6 +959,74 @@ public class FileViewer {
 		}
 	}
 
+	/**
+	 * Finds the tree item of a directory, if the tree shows it.
+	 *
+	 * @param dir the directory
+	 * @return the tree item, or null if the directory is not in the tree
+	 */
+	private TreeItem treeFindItem(final File dir) {
+		final TreeItem item = this.treeIndex.get(dir);
+		return ((item != null) && ! item.isDisposed()) ? item : null;
+	}
+
+	/**
+	 * Adds the directories of all expanded and populated items to a set.
+	 *
+	 * @param items the items to start from
+	 * @param dirs the set to add to
+	 */
+	private static void treeCollectExpanded(final TreeItem[] items, final Set<File> dirs) {
+		for (final TreeItem item : items) {
+			final File file = (File) item.getData(TREEITEMDATA_FILE);
+			if ((file != null) && item.getExpanded() && (item.getData(TREEITEMDATA_STUB) != null)) {
+				dirs.add(file);
+				treeCollectExpanded(item.getItems(), dirs);
+			}
+		}
+	}
+
+	/**
+	 * Adds and removes the sub-items of a populated directory item for changed entries.
+	 *
+	 * @param dirItem the tree item of the directory
+	 * @param changes the changed entries by name; the entry is null if it was removed
+	 */
+	private void treeApplyChanges(final TreeItem dirItem, final Map<String, FileEntry> changes) {
+		for (final Map.Entry<String, FileEntry> change : changes.entrySet()) {
+			final String name = change.getKey();
+			final FileEntry entry = change.getValue();
+
+			// Find the item of the entry, or where it belongs
+			final TreeItem[] items = dirItem.getItems();
+			int index = 0;
+			TreeItem item = null;
+			for (; index < items.length; ++index) {
+				final File itemFile = (File) items[index].getData(TREEITEMDATA_FILE);
+				if (itemFile == null) {
+          continue; // placeholder
+        }
+				final int compare = compareNames(name, itemFile.getName());
+				if (compare == 0) {
+					item = items[index];
+					break;
+				}
+				if (compare < 0) {
+          break;
+        }
+			}
+			if ((entry == null) || ! entry.directory) {
+				if (item != null) {
+          item.dispose();
+        }
+			} else if (item == null) {
+				final TreeItem newItem = new TreeItem(dirItem, SWT.NONE, index);
+				this.treeInitFolder(newItem, entry.file);
+				new TreeItem(newItem, SWT.NONE); // add a placeholder child item so we get the "expand" button
+			}
+		}
+	}
+
 	/**
 	 * Initializes a folder item.
 	 *
@@ -725,6 +1037,8 @@ public class FileViewer {
 		item.setText(folder.getName());
 		item.setImage(this.iconCache.stockImages[this.iconCache.iconClosedFolder]);
 		item.setData(TREEITEMDATA_FILE, folder);
+		this.treeIndex.put(folder, item);
+		item.addListener(SWT.Dispose, this.treeItemDisposeListener);
 		item.setData(TREEITEMDATA_IMAGEEXPANDED, this.iconCache.stockImages[this.iconCache.iconOpenFolder]);
 		item.setData(TREEITEMDATA_IMAGECOLLAPSED, this.iconCache.stockImages[this.iconCache.iconClosedFolder]);
 	}
@@ -739,6 +1053,8 @@ public class FileViewer {
 		item.setText(volume.getPath());
 		item.setImage(this.iconCache.stockImages[this.iconCache.iconClosedDrive]);
 		item.setData(TREEITEMDATA_FILE, volume);
+		this.treeIndex.put(volume, item);
+		item.addListener(SWT.Dispose, this.treeItemDisposeListener);
 		item.setData(TREEITEMDATA_IMAGEEXPANDED, this.iconCache.stockImages[this.iconCache.iconOpenDrive]);
 		item.setData(TREEITEMDATA_IMAGECOLLAPSED, this.iconCache.stockImages[this.iconCache.iconClosedDrive]);
 	}
@@ -758,8 +1074,15 @@ public class FileViewer {
 		this.tableContentsOfLabel = new Label(composite, SWT.BORDER);
 		this.tableContentsOfLabel.setLayoutData(new GridData(GridData.FILL_HORIZONTAL | GridData.VERTICAL_ALIGN_FILL));
 
-		this.table = new Table(composite, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.MULTI | SWT.FULL_SELECTION);
+		this.table = new Table(composite, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.MULTI | SWT.FULL_SELECTION | SWT.VIRTUAL);
 		this.table.setLayoutData(new GridData(GridData.FILL_HORIZONTAL | GridData.FILL_VERTICAL));
+		this.table.addListener(SWT.SetData, event -> {
+			final TableItem item = (TableItem) event.item;
+			final TableRow row = this.tableRows[event.index];
+			item.setText(row.strings);
+			item.setImage(this.getTableRowIcon(row));
+			item.setData(TABLEITEMDATA_FILE, row.file);
+		});
 
 		for (int i = 0; i < this.tableTitles.length; ++i) {
 			final TableColumn column = new TableColumn(this.table, SWT.NONE);
@@ -781,7 +1104,7 @@ public class FileViewer {
 				final File[] files = new File[items.length];
 
 				for (int i = 0; i < items.length; ++i) {
-					files[i] = (File) items[i].getData(TABLEITEMDATA_FILE);
+					files[i] = FileViewer.this.getTableItemFile(items[i]);
 				}
 				return files;
 			}
@@ -791,6 +1114,83 @@ public class FileViewer {
 		this.createTableDropTarget(this.table);
 	}
 
+	/**
+	 * Returns the file shown by a table item. Items of the virtual table
+	 * that have never been shown have no data yet, so the file is looked up
+	 * in the published rows.
+	 *
+	 * @param item the table item
+	 * @return the file of the item
+	 */
+	File getTableItemFile(final TableItem item) {
+		final File file = (File) item.getData(TABLEITEMDATA_FILE);
+		if (file != null) {
+			return file;
+		}
+		return this.tableRows[this.table.indexOf(item)].file;
+	}
+
+	/**
+	 * Adds, removes and updates the rows of the table for changed entries
+	 * of the current directory. Only the changed rows are touched, so the
+	 * other items keep their data and the table keeps its selection.
+	 *
+	 * @param changes the changed entries by name; the entry is null if it was removed
+	 */
+	private void tableApplyChanges(final Map<String, FileEntry> changes) {
+		if (! this.tableListingComplete) {
+			// the worker is still listing the directory, start over
+			this.workerUpdate(this.currentDirectory, true);
+			return;
+		}
+		for (final Map.Entry<String, FileEntry> change : changes.entrySet()) {
+			final int index = this.tableFindRow(change.getKey());
+			final FileEntry entry = change.getValue();
+			final TableRow[] rows = this.tableRows;
+			if (index >= 0) {
+				if (entry != null) {
+					rows[index] = this.workerCreateRow(entry);
+					this.table.clear(index);
+				} else {
+					final TableRow[] newRows = new TableRow[rows.length - 1];
+					System.arraycopy(rows, 0, newRows, 0, index);
+					System.arraycopy(rows, index + 1, newRows, index, newRows.length - index);
+					this.tableRows = newRows;
+					this.table.remove(index);
+				}
+			} else if (entry != null) {
+				final int insert = -index - 1;
+				final TableRow[] newRows = new TableRow[rows.length + 1];
+				System.arraycopy(rows, 0, newRows, 0, insert);
+				System.arraycopy(rows, insert, newRows, insert + 1, rows.length - insert);
+				newRows[insert] = this.workerCreateRow(entry);
+				this.tableRows = newRows;
+				new TableItem(this.table, SWT.NONE, insert);
+			}
+		}
+	}
+
+	/*
+	 * Finds a row by name in the sorted rows of the table.
+	 *
+	 * @return the index of the row, or -(insertion point) - 1 if there is none
+	 */
+	private int tableFindRow(final String name) {
+		int low = 0, high = this.tableRows.length - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int compare = NameOrder.DEFAULT.compare(this.tableRows[mid].strings[0], name);
+			if (compare < 0) {
+				low = mid + 1;
+			} else if (compare > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
 	/**
 	 * Creates the Drag & Drop DragSource for items being dragged from the table.
 	 *
@@ -825,7 +1225,7 @@ public class FileViewer {
 
 				this.sourceNames  = new String[this.dndSelection.length];
 				for (int i = 0; i < this.dndSelection.length; i++) {
-					final File file = (File) this.dndSelection[i].getData(TABLEITEMDATA_FILE);
+					final File file = FileViewer.this.getTableItemFile(this.dndSelection[i]);
 					this.sourceNames[i] = file.getAbsolutePath();
 				}
 				event.data = this.sourceNames;
@@ -876,7 +1276,7 @@ public class FileViewer {
 					}
 				} else {
 					// We are over a particular item in the table, use the item's file
-					targetFile = (File) item.getData(TABLEITEMDATA_FILE);
+					targetFile = FileViewer.this.getTableItemFile(item);
 				}
 				return targetFile;
 			}
@@ -896,6 +1296,12 @@ public class FileViewer {
 		this.currentDirectory = dir;
 		this.notifySelectedFiles(null);
 
+		/* Tree view:
+		 * Stops listing directories that are not on the way to the selected one.
+		 */
+		final File selectedDir = dir;
+		this.treeCancelLoads(loadDir -> ! isAncestor(loadDir, selectedDir));
+
 		/* Shell:
 		 * Sets the title to indicate the selected directory
 		 */
@@ -936,36 +1342,22 @@ public class FileViewer {
 			dir = dir.getParentFile();
 		}
 		// Recursively expand the tree to get to the specified directory
-		TreeItem[] items = this.tree.getItems();
 		TreeItem lastItem = null;
 		for (int i = path.size() - 1; i >= 0; --i) {
-			final File pathElement = path.get(i);
-
-			// Search for a particular File in the array of tree items
-			// No guarantee that the items are sorted in any recognizable fashion, so we'll
-			// just sequential scan.  There shouldn't be more than a few thousand entries.
-			TreeItem item = null;
-			for (final TreeItem currentItem : items) {
-				item = currentItem;
-				if (item.isDisposed()) {
-          continue;
-        }
-				final File itemFile = (File) item.getData(TREEITEMDATA_FILE);
-				if ((itemFile != null) && itemFile.equals(pathElement)) {
-          break;
-        }
-			}
+			// Look up the item of each directory in the index; populating its
+			// parent in the previous step has added it there
+			final TreeItem item = this.treeFindItem(path.get(i));
 			if (item == null) {
         break;
       }
 			lastItem = item;
 			if ((i != 0) && !item.getExpanded()) {
-				this.treeExpandItem(item);
+				this.treePopulateItem(item);
 				item.setExpanded(true);
 			}
-			items = item.getItems();
 		}
 		this.tree.setSelection((lastItem != null) ? new TreeItem[] { lastItem } : new TreeItem[0]);
+		this.updateWatchedDirectories();
 	}
 
 	/**
@@ -977,28 +1369,62 @@ public class FileViewer {
 		/* Details:
 		 * Update the details that are visible on screen.
 		 */
+		if (this.sizeJob != null) {
+			this.sizeJob.cancel();
+			this.sizeJob = null;
+		}
 		if ((files != null) && (files.length != 0)) {
 			this.numObjectsLabel.setText(getResourceString("details.NumberOfSelectedFiles.text",
 				new Object[] { Integer.valueOf(files.length) }));
-			long fileSize = 0L;
-			for (final File file : files) {
-				fileSize += file.length();
-			}
-			this.diskSpaceLabel.setText(getResourceString("details.FileSize.text",
-				new Object[] { Long.valueOf(fileSize) }));
+			// Sum the sizes in the background; most selections are done before the first update
+			final SizeAggregator.Job job = this.sizeAggregator.start(files, done -> {
+				if (! this.display.isDisposed()) {
+					this.display.asyncExec(() -> this.showSelectionSize(done));
+				}
+			});
+			this.sizeJob = job;
+			this.diskSpaceLabel.setText("");
+			this.display.timerExec(SIZE_UPDATE_INTERVAL, () -> this.showSelectionSize(job));
 		} else {
 			// No files selected
 			this.diskSpaceLabel.setText("");
-			if (this.currentDirectory != null) {
-				final int numObjects = getDirectoryList(this.currentDirectory).length;
+			if ((this.currentDirectory != null) && this.tableListingComplete
+					&& this.currentDirectory.equals(this.table.getData(TABLEDATA_DIR))) {
 				this.numObjectsLabel.setText(getResourceString("details.DirNumberOfObjects.text",
-					new Object[] { Integer.valueOf(numObjects) }));
+					new Object[] { Integer.valueOf(this.table.getItemCount()) }));
 			} else {
+				// shown when the worker has listed the directory
 				this.numObjectsLabel.setText("");
 			}
 		}
 	}
 
+	/**
+	 * Shows the totals of the selected files, and schedules the next update
+	 * until they are complete.
+	 *
+	 * @param job the job that computes the totals
+	 */
+	void showSelectionSize(final SizeAggregator.Job job) {
+		if (this.shell.isDisposed() || (this.sizeJob != job)) {
+      return;
+    }
+		final boolean done = job.isDone(); // read before the totals, so the last update is complete
+		final Long bytes = Long.valueOf(job.bytes.get());
+		final int directories = job.directories.get();
+		if (directories == 0) {
+			this.diskSpaceLabel.setText(getResourceString("details.FileSize.text", new Object[] { bytes }));
+		} else {
+			this.diskSpaceLabel.setText(getResourceString(done ? "details.TotalSize.text" : "details.PartialSize.text",
+				new Object[] { bytes, Integer.valueOf(job.files.get()), Integer.valueOf(directories) }));
+		}
+		if (done) {
+			this.sizeJob = null;
+		} else {
+			this.display.timerExec(SIZE_UPDATE_INTERVAL, () -> this.showSelectionSize(job));
+		}
+	}
+
 	/**
 	 * Notifies the application components that files must be refreshed
 	 *
@@ -1022,6 +1448,65 @@ public class FileViewer {
 		this.handleDeferredRefresh();
 	}
 
+	/**
+	 * Notifies the application components that entries of watched directories have changed.
+	 * <p>
+	 * The changes are applied to the table and the tree as they are, without listing
+	 * the directories again. Directories that lost events are refreshed completely.
+	 * </p>
+	 *
+	 * @param changes the changed entries by directory, by name; the entry is null if it was removed
+	 * @param rescans the directories that need to be listed again
+	 */
+	void notifyChangedFiles(final Map<File, Map<String, FileEntry>> changes, final Set<File> rescans) {
+		if (this.shell.isDisposed()) {
+      return;
+    }
+		if (this.isDragging || this.isDropping) {
+			// leave the tree alone during Drag & Drop
+			final Set<File> dirs = new HashSet<>(changes.keySet());
+			dirs.addAll(rescans);
+			this.notifyRefreshFiles(dirs.toArray(new File[dirs.size()]));
+			return;
+		}
+		for (final File dir : rescans) {
+			this.sizeAggregator.invalidate(dir);
+			final TreeItem item = this.treeFindItem(dir);
+			if (item != null) {
+				this.treeRefreshItem(item, false);
+			}
+			if (dir.equals(this.currentDirectory)) {
+				this.workerUpdate(dir, true);
+			}
+		}
+		for (final Map.Entry<File, Map<String, FileEntry>> change : changes.entrySet()) {
+			final File dir = change.getKey();
+			this.sizeAggregator.invalidate(dir);
+			final TreeItem item = this.treeFindItem(dir);
+			if ((item != null) && (item.getData(TREEITEMDATA_STUB) != null)) {
+				this.treeApplyChanges(item, change.getValue());
+			}
+			if (dir.equals(this.currentDirectory)) {
+				this.tableApplyChanges(change.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Watches the current directory and the directories of all expanded tree items.
+	 */
+	void updateWatchedDirectories() {
+		if ((this.watcher == null) || this.tree.isDisposed()) {
+      return;
+    }
+		final Set<File> dirs = new HashSet<>();
+		if (this.currentDirectory != null) {
+			dirs.add(this.currentDirectory);
+		}
+		treeCollectExpanded(this.tree.getItems(), dirs);
+		this.watcher.setDirectories(dirs);
+	}
+
 	/**
 	 * Handles deferred Refresh notifications (due to Drag & Drop)
 	 */
@@ -1141,10 +1626,24 @@ public class FileViewer {
 		this.notifySelectedDirectory(parentDirectory);
 	}
 
+	/**
+	 * Opens the find files dialog, or activates it if it is already open
+	 */
+	void doSearch() {
+		if (this.searchDialog == null) {
+			this.searchDialog = new SearchDialog(this.shell, this.currentDirectory);
+			this.searchDialog.open();
+		} else {
+			this.searchDialog.shell.setActive();
+		}
+	}
+
 	/**
 	 * Performs a refresh
 	 */
 	void doRefresh() {
+		this.fileTypes.clear(); // pick up changes to the program associations
+		this.sizeAggregator.clear(); // and to folders that are not watched
 		this.notifyRefreshFiles(null);
 	}
 
@@ -1195,58 +1694,81 @@ public class FileViewer {
 		// Open progress dialog
 		this.progressDialog = new ProgressDialog(this.shell,
 			(event.detail == DND.DROP_MOVE) ? ProgressDialog.MOVE : ProgressDialog.COPY);
-		this.progressDialog.setTotalWorkUnits(sourceNames.length);
 		this.progressDialog.open();
 
-		// Copy each file
-		final List<File> processedFiles = new ArrayList<>();
-		for (int i = 0; (i < sourceNames.length) && (! this.progressDialog.isCancelled()); i++){
-			final File source = new File(sourceNames[i]);
+		// Copy all files at once. When this application is moving files within
+		// one file system, they are renamed instead and must not be deleted afterwards.
+		final boolean rename = (event.detail == DND.DROP_MOVE) && this.isDragging;
+		final List<File> sources = new ArrayList<>();
+		final List<File> dests = new ArrayList<>();
+		for (final String sourceName : sourceNames) {
+			final File source = new File(sourceName);
 			final File dest = new File(targetFile, source.getName());
 			if (source.equals(dest))
        {
         continue; // ignore if in same location
       }
+			sources.add(source);
+			dests.add(dest);
+		}
+		final FileOperation operation = new FileOperation(this.simulateOnly);
+		final List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+		for (int i = 0; i < sources.size(); i++) {
+			tasks.add(rename ? operation.move(sources.get(i), dests.get(i)) : operation.copy(sources.get(i), dests.get(i)));
+		}
+		final boolean[] results = this.runFileOperation(operation, tasks);
 
-			this.progressDialog.setDetailFile(source, ProgressDialog.COPY);
-			while (! this.progressDialog.isCancelled()) {
-				if (this.copyFileStructure(source, dest)) {
-					processedFiles.add(source);
-					break;
-				} else if (! this.progressDialog.isCancelled()) {
-					if ((event.detail == DND.DROP_MOVE) && (!this.isDragging)) {
-						// It is not possible to notify an external drag source that a drop
-						// operation was only partially successful.  This is particularly a
-						// problem for DROP_MOVE operations since unless the source gets
-						// DROP_NONE, it will delete the original data including bits that
-						// may not have been transferred successfully.
-						final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.RETRY | SWT.CANCEL);
-						box.setText(getResourceString("dialog.FailedCopy.title"));
-						box.setMessage(getResourceString("dialog.FailedCopy.description",
-							new Object[] { source, dest }));
-						final int button = box.open();
-						if (button == SWT.CANCEL) {
-							i = sourceNames.length;
-							event.detail = DND.DROP_NONE;
-							break;
-						}
-					} else {
-						// We can recover gracefully from errors if the drag source belongs
-						// to this application since it will look at processedDropFiles.
-						final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.ABORT | SWT.RETRY | SWT.IGNORE);
-						box.setText(getResourceString("dialog.FailedCopy.title"));
-						box.setMessage(getResourceString("dialog.FailedCopy.description",
-							new Object[] { source, dest }));
-						final int button = box.open();
-						if (button == SWT.ABORT) {
-              i = sourceNames.length;
-            }
-						if (button != SWT.RETRY) {
-              break;
-            }
+		// Report failures one by one
+		final List<File> processedFiles = new ArrayList<>();
+		final List<File> refreshFiles = new ArrayList<>();
+		refreshFiles.add(targetFile);
+		for (int i = 0; (i < sources.size()) && (! this.progressDialog.isCancelled()); i++){
+			final File source = sources.get(i);
+			final File dest = dests.get(i);
+			FileOperation attempt = operation;
+			boolean done = results[i];
+			while (! done && ! this.progressDialog.isCancelled()) {
+				if ((event.detail == DND.DROP_MOVE) && (!this.isDragging)) {
+					// It is not possible to notify an external drag source that a drop
+					// operation was only partially successful.  This is particularly a
+					// problem for DROP_MOVE operations since unless the source gets
+					// DROP_NONE, it will delete the original data including bits that
+					// may not have been transferred successfully.
+					final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.RETRY | SWT.CANCEL);
+					box.setText(getResourceString("dialog.FailedCopy.title"));
+					box.setMessage(getResourceString("dialog.FailedCopy.description",
+						new Object[] { source, dest }));
+					final int button = box.open();
+					if (button == SWT.CANCEL) {
+						i = sources.size();
+						event.detail = DND.DROP_NONE;
+						break;
 					}
+				} else {
+					// We can recover gracefully from errors if the drag source belongs
+					// to this application since it will look at processedDropFiles.
+					final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.ABORT | SWT.RETRY | SWT.IGNORE);
+					box.setText(getResourceString("dialog.FailedCopy.title"));
+					box.setMessage(getResourceString("dialog.FailedCopy.description",
+						new Object[] { source, dest }));
+					final int button = box.open();
+					if (button == SWT.ABORT) {
+            i = sources.size();
+          }
+					if (button != SWT.RETRY) {
+            break;
+          }
+				}
+				attempt = new FileOperation(this.simulateOnly);
+				done = this.runFileOperation(attempt, Collections.singletonList(
+					rename ? attempt.move(source, dest) : attempt.copy(source, dest)))[0];
+			}
+			if (done) {
+				if (attempt.renamed.contains(source)) {
+					refreshFiles.add(source);
+				} else {
+					processedFiles.add(source);
 				}
-				this.progressDialog.addProgress(1);
 			}
 		}
 		if (this.isDragging) {
@@ -1256,7 +1778,7 @@ public class FileViewer {
 			this.progressDialog.close();
 			this.progressDialog = null;
 		}
-		this.notifyRefreshFiles(new File[] { targetFile });
+		this.notifyRefreshFiles(refreshFiles.toArray(new File[refreshFiles.size()]));
 	}
 
 	/**
@@ -1285,32 +1807,33 @@ public class FileViewer {
 		if (this.progressDialog == null) {
       this.progressDialog = new ProgressDialog(this.shell, ProgressDialog.MOVE);
     }
-		this.progressDialog.setTotalWorkUnits(sourceFiles.length);
-		this.progressDialog.setProgress(0);
 		this.progressDialog.open();
 
-		// Delete each file
+		// Delete all files at once, then report failures one by one
+		final FileOperation operation = new FileOperation(this.simulateOnly);
+		final List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+		for (final File source : sourceFiles) {
+			tasks.add(operation.delete(source));
+		}
+		final boolean[] results = this.runFileOperation(operation, tasks);
 		for (int i = 0; (i < sourceFiles.length) && (! this.progressDialog.isCancelled()); i++){
 			final File source = sourceFiles[i];
-			this.progressDialog.setDetailFile(source, ProgressDialog.DELETE);
-			while (! this.progressDialog.isCancelled()) {
-				if (this.deleteFileStructure(source)) {
-					break;
-				} else if (! this.progressDialog.isCancelled()) {
-					final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.ABORT | SWT.RETRY | SWT.IGNORE);
-					box.setText(getResourceString("dialog.FailedDelete.title"));
-					box.setMessage(getResourceString("dialog.FailedDelete.description",
-						new Object[] { source }));
-					final int button = box.open();
-					if (button == SWT.ABORT) {
-            i = sourceNames.length;
-          }
-					if (button == SWT.RETRY) {
-            break;
-          }
-				}
+			boolean done = results[i];
+			while (! done && ! this.progressDialog.isCancelled()) {
+				final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.ABORT | SWT.RETRY | SWT.IGNORE);
+				box.setText(getResourceString("dialog.FailedDelete.title"));
+				box.setMessage(getResourceString("dialog.FailedDelete.description",
+					new Object[] { source }));
+				final int button = box.open();
+				if (button == SWT.ABORT) {
+          i = sourceFiles.length;
+        }
+				if (button != SWT.RETRY) {
+          break;
+        }
+				final FileOperation retry = new FileOperation(this.simulateOnly);
+				done = this.runFileOperation(retry, Collections.singletonList(retry.delete(source)))[0];
 			}
-			this.progressDialog.addProgress(1);
 		}
 		this.notifyRefreshFiles(sourceFiles);
 		this.progressDialog.close();
@@ -1348,7 +1871,7 @@ public class FileViewer {
 				}
 			}
 			final File[] roots = list.toArray(new File[list.size()]);
-			sortFiles(roots);
+			NameOrder.DEFAULT.sort(roots, File::getName);
 			return roots;
 		}
 		final File root = new File(File.separator);
@@ -1360,190 +1883,62 @@ public class FileViewer {
 	}
 
 	/**
-	 * Gets a directory listing
+	 * Gets a directory listing, with the attributes of every entry read in the same pass
 	 *
 	 * @param file the directory to be listed
-	 * @return an array of files this directory contains, may be empty but not null
+	 * @return an array of the entries this directory contains, sorted by name, may be empty but not null
 	 */
-	static File[] getDirectoryList(final File file) {
-		final File[] list = file.listFiles();
-		if (list == null) {
-      return new File[0];
-    }
-		sortFiles(list);
-		return list;
+	static FileEntry[] getDirectoryList(final File file) {
+		return FileEntry.list(file);
 	}
 
 	/**
-	 * Copies a file or entire directory structure.
+	 * Runs the tasks of a file operation in the background and keeps the
+	 * progress dialog up to date until all of them are done. The Cancel
+	 * button of the dialog cancels the operation.
 	 *
-	 * @param oldFile the location of the old file or directory
-	 * @param newFile the location of the new file or directory
-	 * @return true iff the operation succeeds without errors
+	 * @param operation the operation that created the tasks
+	 * @param tasks the tasks to run
+	 * @return the result of each task, true iff it succeeded without errors
 	 */
-	boolean copyFileStructure(final File oldFile, final File newFile) {
-		if ((oldFile == null) || (newFile == null)) {
-      return false;
-    }
-
-		// ensure that newFile is not a child of oldFile or a dupe
-		File searchFile = newFile;
-		do {
-			if (oldFile.equals(searchFile)) {
-        return false;
-      }
-			searchFile = searchFile.getParentFile();
-		} while (searchFile != null);
-
-		if (oldFile.isDirectory()) {
-			/*
-			 * Copy a directory
-			 */
-			if (this.progressDialog != null) {
-				this.progressDialog.setDetailFile(oldFile, ProgressDialog.COPY);
-			}
-			if (this.simulateOnly) {
-				//System.out.println(getResourceString("simulate.DirectoriesCreated.text",
-				//	new Object[] { newFile.getPath() }));
-			} else {
-				if (! newFile.mkdirs()) {
-          return false;
-        }
-			}
-			final File[] subFiles = oldFile.listFiles();
-			if (subFiles != null) {
-				if (this.progressDialog != null) {
-					this.progressDialog.addWorkUnits(subFiles.length);
+	boolean[] runFileOperation(final FileOperation operation, final List<ForkJoinTask<Boolean>> tasks) {
+		final ForkJoinTask<?> job = operation.start(this.display, tasks);
+		final Runnable update = new Runnable() {
+			@Override
+			public void run() {
+				final ProgressDialog dialog = FileViewer.this.progressDialog;
+				if (job.isDone() || (dialog == null)) {
+					return;
 				}
-				for (final File subFile : subFiles) {
-					final File oldSubFile = subFile;
-					final File newSubFile = new File(newFile, oldSubFile.getName());
-					if (! this.copyFileStructure(oldSubFile, newSubFile)) {
-            return false;
-          }
-					if (this.progressDialog != null) {
-						this.progressDialog.addProgress(1);
-						if (this.progressDialog.isCancelled()) {
-              return false;
-            }
-					}
+				if (dialog.isCancelled()) {
+					operation.cancel();
 				}
+				dialog.showProgress(operation);
+				FileViewer.this.display.timerExec(PROGRESS_INTERVAL, this);
 			}
-		} else /*
-     * Copy a file
-     */
-    if (this.simulateOnly) {
-    	//System.out.println(getResourceString("simulate.CopyFromTo.text",
-    	//	new Object[] { oldFile.getPath(), newFile.getPath() }));
-    } else {
-    	try (FileReader in = new FileReader(oldFile);
-    			FileWriter out = new FileWriter(newFile);){
-    		int count;
-    		while ((count = in.read()) != -1) {
-          out.write(count);
-        }
-    	} catch (final IOException e) {
-    		return false;
-    	}
-    }
-		return true;
-	}
-
-	/**
-	 * Deletes a file or entire directory structure.
-	 *
-	 * @param oldFile the location of the old file or directory
-	 * @return true iff the operation succeeds without errors
-	 */
-	boolean deleteFileStructure(final File oldFile) {
-		if (oldFile == null) {
-      return false;
-    }
-		if (oldFile.isDirectory()) {
-			/*
-			 * Delete a directory
-			 */
-			if (this.progressDialog != null) {
-				this.progressDialog.setDetailFile(oldFile, ProgressDialog.DELETE);
-			}
-			final File[] subFiles = oldFile.listFiles();
-			if (subFiles != null) {
-				if (this.progressDialog != null) {
-					this.progressDialog.addWorkUnits(subFiles.length);
-				}
-				for (final File subFile : subFiles) {
-					final File oldSubFile = subFile;
-					if (! this.deleteFileStructure(oldSubFile)) {
-            return false;
-          }
-					if (this.progressDialog != null) {
-						this.progressDialog.addProgress(1);
-						if (this.progressDialog.isCancelled()) {
-              return false;
-            }
-					}
-				}
+		};
+		update.run();
+		while (! job.isDone()) {
+			if (! this.display.readAndDispatch()) {
+				this.display.sleep();
 			}
 		}
-		if (this.simulateOnly) {
-			//System.out.println(getResourceString("simulate.Delete.text",
-			//	new Object[] { oldFile.getPath(), oldFile.getPath() }));
-			return true;
-		}
-		return oldFile.delete();
-	}
-
-	/**
-	 * Sorts files lexicographically by name.
-	 *
-	 * @param files the array of Files to be sorted
-	 */
-	static void sortFiles(final File[] files) {
-		/* Very lazy merge sort algorithm */
-		sortBlock(files, 0, files.length - 1, new File[files.length]);
-	}
-	private static void sortBlock(final File[] files, final int start, final int end, final File[] mergeTemp) {
-		final int length = (end - start) + 1;
-		if (length < 8) {
-			for (int i = end; i > start; --i) {
-				for (int j = end; j > start; --j)  {
-					if (compareFiles(files[j - 1], files[j]) > 0) {
-						final File temp = files[j];
-						files[j] = files[j-1];
-						files[j-1] = temp;
-					}
-				}
-			}
-			return;
+		this.display.timerExec(-1, update);
+		if (this.progressDialog != null) {
+			this.progressDialog.showProgress(operation);
 		}
-		final int mid = (start + end) / 2;
-		sortBlock(files, start, mid, mergeTemp);
-		sortBlock(files, mid + 1, end, mergeTemp);
-		int x = start;
-		int y = mid + 1;
-		for (int i = 0; i < length; ++i) {
-			if ((x > mid) || ((y <= end) && (compareFiles(files[x], files[y]) > 0))) {
-				mergeTemp[i] = files[y++];
-			} else {
-				mergeTemp[i] = files[x++];
-			}
+		final boolean[] results = new boolean[tasks.size()];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = tasks.get(i).join().booleanValue();
 		}
-		for (int i = 0; i < length; ++i) {
-      files[i + start] = mergeTemp[i];
-    }
+		return results;
 	}
-	private static int compareFiles(final File a, final File b) {
-//		boolean aIsDir = a.isDirectory();
-//		boolean bIsDir = b.isDirectory();
-//		if (aIsDir && ! bIsDir) return -1;
-//		if (bIsDir && ! aIsDir) return 1;
 
-		// sort case-sensitive files in a case-insensitive manner
-		int compare = a.getName().compareToIgnoreCase(b.getName());
-		if (compare == 0) {
-      compare = a.getName().compareTo(b.getName());
-    }
-		return compare;
+	/**
+	 * Compares the names of two files in the order of NameOrder.DEFAULT.
+	 */
+	static int compareNames(final String a, final String b) {
+		return NameOrder.DEFAULT.compare(a, b);
 	}
 
 	/*
@@ -1555,6 +1950,9 @@ public class FileViewer {
 	 * <li> It uses asyncExec() in some places to ensure that SWT Widgets are manipulated in the
 	 *      right thread.  Exclusive use of syncExec() would be inappropriate as it would require a pair
 	 *      of context switches between each table update operation.
+	 * <li> Rows are published in batches of TABLE_BATCH_ROWS rows, or whatever was computed in
+	 *      TABLE_BATCH_NANOS, with a single asyncExec() each.  The table is VIRTUAL, so publishing
+	 *      a batch only changes the item count; items are filled in from the rows when they are shown.
 	 * </ul>
 	 * </p>
 	 */
@@ -1631,68 +2029,192 @@ public class FileViewer {
 	 * Updates the table's contents
 	 */
 	private void workerExecute() {
-		File[] dirList;
+		FileEntry[] dirList;
 		// Clear existing information
+		final Object listing = new Object();
 		this.display.syncExec(() -> {
 			this.tableContentsOfLabel.setText(FileViewer.getResourceString("details.ContentsOf.text",
 				new Object[] { this.workerStateDir.getPath() }));
+			this.tableRows = new TableRow[0];
+			this.tableListing = listing;
+			this.tableListingComplete = false;
 			this.table.removeAll();
 			this.table.setData(TABLEDATA_DIR, this.workerStateDir);
 		});
 		dirList = getDirectoryList(this.workerStateDir);
 
+		// Rows below the published count are never written again, so the
+		// UI thread can read them without locking.
+		final TableRow[] rows = new TableRow[dirList.length];
+		int published = 0;
+		long publishTime = System.nanoTime();
+		if (dirList.length == 0) {
+			this.workerPublishRows(listing, rows, 0);
+		}
 		for (int i = 0; (! this.workerCancelled) && (i < dirList.length); i++) {
-			this.workerAddFileDetails(dirList[i]);
+			rows[i] = this.workerCreateRow(dirList[i]);
+			if (((i + 1) == dirList.length) || (((i + 1) - published) >= TABLE_BATCH_ROWS)
+					|| ((System.nanoTime() - publishTime) >= TABLE_BATCH_NANOS)) {
+				published = i + 1;
+				publishTime = System.nanoTime();
+				this.workerPublishRows(listing, rows, published);
+			}
 		}
+	}
 
+	/**
+	 * Shows the first count rows in the table, unless a newer listing has started
+	 */
+	private void workerPublishRows(final Object listing, final TableRow[] rows, final int count) {
+		this.display.asyncExec(() -> {
+			// guard against the shell being closed before this runs
+			if (this.shell.isDisposed() || (this.tableListing != listing)) {
+        return;
+      }
+			this.tableRows = rows;
+			this.tableListingComplete = count == rows.length;
+			this.table.setItemCount(count);
+			if (this.tableListingComplete && (this.table.getSelectionCount() == 0)) {
+				this.notifySelectedFiles(null); // show the number of objects
+			}
+		});
 	}
 
 	/**
-	 * Adds a file's detail information to the directory list
+	 * Computes a file's detail information for the directory list.
+	 * Called on the worker thread, or on the UI thread while the worker is idle.
 	 */
-	private void workerAddFileDetails(final File file) {
-		final String nameString = file.getName();
-		final String dateString = dateFormat.format(new Date(file.lastModified()));
+	private TableRow workerCreateRow(final FileEntry entry) {
+		final String nameString = entry.name;
+		final String dateString = formatDate(entry.lastModified);
 		final String sizeString;
 		final String typeString;
-		final Image iconImage;
+		final FileType type;
 
-		if (file.isDirectory()) {
+		if (entry.directory) {
 			typeString = getResourceString("filetype.Folder");
 			sizeString = "";
-			iconImage = this.iconCache.stockImages[this.iconCache.iconClosedFolder];
+			type = null;
 		} else {
-			sizeString = getResourceString("filesize.KB",
-				new Object[] { Long.valueOf((file.length() + 512) / 1024) });
-
-			final int dot = nameString.lastIndexOf('.');
-			if (dot != -1) {
-				final String extension = nameString.substring(dot);
-				final Program program = Program.findProgram(extension);
-				if (program != null) {
-					typeString = program.getName();
-					iconImage = this.iconCache.getIconFromProgram(program);
-				} else {
-					typeString = getResourceString("filetype.Unknown", new Object[] { extension.toUpperCase() });
-					iconImage = this.iconCache.stockImages[this.iconCache.iconFile];
-				}
-			} else {
-				typeString = getResourceString("filetype.None");
-				iconImage = this.iconCache.stockImages[this.iconCache.iconFile];
-			}
+			sizeString = formatSize(entry.size);
+			type = this.getFileType(nameString);
+			typeString = type.name;
 		}
-		final String[] strings = new String[] { nameString, sizeString, typeString, dateString };
+		return new TableRow(entry.file, new String[] { nameString, sizeString, typeString, dateString }, type);
+	}
 
-		this.display.syncExec(() -> {
-			// guard against the shell being closed before this runs
-			if (this.shell.isDisposed()) {
-        return;
-      }
-			final TableItem tableItem = new TableItem(this.table, 0);
-			tableItem.setText(strings);
-			tableItem.setImage(iconImage);
-			tableItem.setData(TABLEITEMDATA_FILE, file);
-		});
+	/**
+	 * Formats the size of a file for the details table.
+	 *
+	 * @param size the size in bytes
+	 * @return the size in kilobytes
+	 */
+	static String formatSize(final long size) {
+		final long kb = (size + 512) / 1024;
+		if (kb >= sizeStrings.length) {
+			return getResourceString("filesize.KB", new Object[] { Long.valueOf(kb) });
+		}
+		// Strings are immutable, so a race only formats the same size twice
+		String string = sizeStrings[(int) kb];
+		if (string == null) {
+			string = getResourceString("filesize.KB", new Object[] { Long.valueOf(kb) });
+			sizeStrings[(int) kb] = string;
+		}
+		return string;
+	}
+
+	/**
+	 * Formats the modification time of a file. DateFormat is not thread-safe,
+	 * so the shared instance is locked while it is used.
+	 *
+	 * @param millis the time in milliseconds since the epoch
+	 * @return the date and time
+	 */
+	static String formatDate(final long millis) {
+		synchronized (dateFormat) {
+			return dateFormat.format(new Date(millis));
+		}
+	}
+
+	/**
+	 * Returns the type of a file. The program associated with an extension
+	 * is only looked up the first time the extension is seen.
+	 *
+	 * @param name the name of the file
+	 * @return the type of the file
+	 */
+	FileType getFileType(final String name) {
+		final int dot = name.lastIndexOf('.');
+		final String extension = (dot != -1) ? name.substring(dot) : "";
+		return this.fileTypes.computeIfAbsent(extension, this::createFileType);
+	}
+
+	private FileType createFileType(final String extension) {
+		if (extension.isEmpty()) {
+			return new FileType(null, getResourceString("filetype.None"), null);
+		}
+		final Program program = Program.findProgram(extension);
+		if (program == null) {
+			return new FileType(null, getResourceString("filetype.Unknown", new Object[] { extension.toUpperCase() }), null);
+		}
+		// Decode the icon here, on the calling thread; the image is created when a row shows it
+		return new FileType(program, program.getName(), IconCache.getImageData(program));
+	}
+
+	/**
+	 * Returns the icon of a row of the details table. Must be called on the UI thread.
+	 *
+	 * @param row the row
+	 * @return the icon, owned by the icon cache
+	 */
+	Image getTableRowIcon(final TableRow row) {
+		return this.getFileTypeIcon(row.type);
+	}
+
+	/**
+	 * Returns the icon of a file type. Must be called on the UI thread.
+	 *
+	 * @param type the type, null for directories
+	 * @return the icon, owned by the icon cache
+	 */
+	Image getFileTypeIcon(final FileType type) {
+		if (type == null) {
+			return this.iconCache.stockImages[this.iconCache.iconClosedFolder];
+		}
+		if (type.program == null) {
+			return this.iconCache.stockImages[this.iconCache.iconFile];
+		}
+		return this.iconCache.getIconFromProgram(type.program, type.iconData);
+	}
+
+	/**
+	 * The type of the files with a given extension.
+	 */
+	static class FileType {
+		final Program program; // null if no program is associated with the extension
+		final String name;
+		final ImageData iconData; // the decoded icon of the program, null if there is none
+
+		FileType(final Program program, final String name, final ImageData iconData) {
+			this.program = program;
+			this.name = name;
+			this.iconData = iconData;
+		}
+	}
+
+	/**
+	 * The contents of one row of the details table.
+	 */
+	static class TableRow {
+		final File file;
+		final String[] strings;
+		final FileType type; // null for directories
+
+		TableRow(final File file, final String[] strings, final FileType type) {
+			this.file = file;
+			this.strings = strings;
+			this.type = type;
+		}
 	}
 
 	/**
@@ -1704,7 +2226,7 @@ public class FileViewer {
 		public final static int MOVE = 2;
 
 		Shell shell;
-		Label messageLabel, detailLabel;
+		Label messageLabel, detailLabel, rateLabel;
 		ProgressBar progressBar;
 		Button cancelButton;
 		boolean isCancelled = false;
@@ -1742,6 +2264,9 @@ public class FileViewer {
 			gridData.widthHint = 400;
 			this.detailLabel.setLayoutData(gridData);
 
+			this.rateLabel = new Label(this.shell, SWT.HORIZONTAL);
+			this.rateLabel.setLayoutData(new GridData(GridData.FILL_HORIZONTAL | GridData.VERTICAL_ALIGN_BEGINNING));
+
 			this.cancelButton = new Button(this.shell, SWT.PUSH);
 			this.cancelButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_END | GridData.VERTICAL_ALIGN_FILL));
 			this.cancelButton.setText(getResourceString("progressDialog.cancelButton.text"));
@@ -1776,6 +2301,7 @@ public class FileViewer {
 		 */
 		public void setTotalWorkUnits(final int work) {
 			this.progressBar.setMaximum(work);
+			this.rateLabel.setText("");
 		}
 		/**
 		 * Adds to the total number of work units to be performed.
@@ -1802,6 +2328,32 @@ public class FileViewer {
 		public void addProgress(final int work) {
 			this.setProgress(this.progressBar.getSelection() + work);
 		}
+		/**
+		 * Shows the progress of a running file operation: the file being
+		 * processed, the amount of work done and, for copies, the transfer rate.
+		 *
+		 * @param operation the running operation
+		 */
+		public void showProgress(final FileOperation operation) {
+			final File file = operation.currentFile;
+			if (file != null) {
+				this.setDetailFile(file, operation.currentOperation);
+			}
+			final long totalBytes = operation.totalBytes.get();
+			if (totalBytes > 0) {
+				final long doneBytes = operation.doneBytes.get();
+				final double seconds = Math.max(1, System.nanoTime() - operation.startTime) / 1e9;
+				this.progressBar.setMaximum((int) (totalBytes / 1024));
+				this.progressBar.setSelection((int) (doneBytes / 1024));
+				this.rateLabel.setText(getResourceString("progressDialog.Rate.text", new Object[] {
+					Long.valueOf(doneBytes / 1024), Long.valueOf(totalBytes / 1024),
+					Long.valueOf(Math.round(doneBytes / seconds / 1024)) }));
+			} else {
+				this.progressBar.setMaximum(operation.totalFiles.get());
+				this.progressBar.setSelection(operation.doneFiles.get());
+				this.rateLabel.setText("");
+			}
+		}
 		/**
 		 * Opens the dialog.
 		 */
@@ -1824,8 +2376,190 @@ public class FileViewer {
 			this.shell = null;
 			this.messageLabel = null;
 			this.detailLabel = null;
+			this.rateLabel = null;
 			this.progressBar = null;
 			this.cancelButton = null;
 		}
 	}
+
+	/**
+	 * Instances of this class manage the find files dialog. A search runs on
+	 * a background thread while the dialog takes its results every POLL_MILLIS
+	 * and shows them in a virtual table.
+	 */
+	class SearchDialog {
+		static final int POLL_MILLIS = 100;
+
+		Shell shell;
+		Text rootText, patternText, contentText;
+		Button regexButton, indexButton, searchButton;
+		Label statusLabel;
+		Table table;
+		final List<FileEntry> results = new ArrayList<>();
+		FileSearch search = null; // the latest search, null before the first one
+		long startTime;
+
+		/**
+		 * Creates a find files dialog but does not open it immediately.
+		 *
+		 * @param parent the parent Shell
+		 * @param root the directory to search, may be null
+		 */
+		public SearchDialog(final Shell parent, final File root) {
+			this.shell = new Shell(parent, SWT.SHELL_TRIM);
+			final GridLayout gridLayout = new GridLayout();
+			gridLayout.numColumns = 3;
+			this.shell.setLayout(gridLayout);
+			this.shell.setText(getResourceString("searchDialog.title"));
+			this.shell.addListener(SWT.Dispose, event -> {
+				if (this.search != null) {
+					this.search.cancel();
+				}
+				FileViewer.this.searchDialog = null;
+			});
+
+			Label label = new Label(this.shell, SWT.NONE);
+			label.setText(getResourceString("searchDialog.Root.text"));
+			this.rootText = new Text(this.shell, SWT.BORDER | SWT.SINGLE);
+			GridData gridData = new GridData(GridData.FILL_HORIZONTAL);
+			gridData.horizontalSpan = 2;
+			this.rootText.setLayoutData(gridData);
+			if (root != null) {
+				this.rootText.setText(root.getPath());
+			}
+
+			label = new Label(this.shell, SWT.NONE);
+			label.setText(getResourceString("searchDialog.Pattern.text"));
+			this.patternText = new Text(this.shell, SWT.BORDER | SWT.SINGLE);
+			this.patternText.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+			this.patternText.setText("*");
+			this.regexButton = new Button(this.shell, SWT.CHECK);
+			this.regexButton.setText(getResourceString("searchDialog.Regex.text"));
+
+			label = new Label(this.shell, SWT.NONE);
+			label.setText(getResourceString("searchDialog.Content.text"));
+			this.contentText = new Text(this.shell, SWT.BORDER | SWT.SINGLE);
+			this.contentText.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+			this.indexButton = new Button(this.shell, SWT.CHECK);
+			this.indexButton.setText(getResourceString("searchDialog.Index.text"));
+
+			this.statusLabel = new Label(this.shell, SWT.NONE);
+			gridData = new GridData(GridData.FILL_HORIZONTAL);
+			gridData.horizontalSpan = 2;
+			this.statusLabel.setLayoutData(gridData);
+			this.searchButton = new Button(this.shell, SWT.PUSH);
+			this.searchButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			this.searchButton.setText(getResourceString("searchDialog.Start.text"));
+			this.searchButton.addSelectionListener(widgetSelectedAdapter(e -> {
+				if ((this.search != null) && !this.search.done) {
+					this.search.cancel();
+				} else {
+					this.start();
+				}
+			}));
+			this.shell.setDefaultButton(this.searchButton);
+
+			this.table = new Table(this.shell, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.SINGLE | SWT.FULL_SELECTION | SWT.VIRTUAL);
+			gridData = new GridData(GridData.FILL_BOTH);
+			gridData.horizontalSpan = 3;
+			gridData.heightHint = 300;
+			this.table.setLayoutData(gridData);
+			this.table.addListener(SWT.SetData, event -> {
+				final TableItem item = (TableItem) event.item;
+				final FileEntry entry = this.results.get(event.index);
+				item.setText(new String[] { entry.name, entry.file.getParent(),
+					entry.directory ? "" : formatSize(entry.size), formatDate(entry.lastModified) });
+				item.setImage(getFileTypeIcon(entry.directory ? null : getFileType(entry.name)));
+			});
+			final String[] titles = { getResourceString("table.Name.title"), getResourceString("searchDialog.Folder.title"),
+				getResourceString("table.Size.title"), getResourceString("table.Modified.title") };
+			final int[] widths = { 150, 250, 60, 150 };
+			for (int i = 0; i < titles.length; ++i) {
+				final TableColumn column = new TableColumn(this.table, SWT.NONE);
+				column.setText(titles[i]);
+				column.setWidth(widths[i]);
+			}
+			this.table.setHeaderVisible(true);
+			this.table.addSelectionListener(SelectionListener.widgetDefaultSelectedAdapter(e -> this.showResult()));
+		}
+		/**
+		 * Opens the dialog.
+		 */
+		public void open() {
+			this.shell.pack();
+			this.shell.open();
+		}
+		/**
+		 * Starts a search with the current settings, replacing the results
+		 * of the previous one.
+		 */
+		void start() {
+			final File root = new File(this.rootText.getText());
+			if (!root.isDirectory()) {
+				this.showError(getResourceString("searchDialog.Error.root", new Object[] { root.getPath() }));
+				return;
+			}
+			final FileSearch search;
+			try {
+				search = new FileSearch(root, this.patternText.getText(), this.regexButton.getSelection(),
+					this.contentText.getText());
+			} catch (final IllegalArgumentException e) {
+				this.showError(getResourceString("searchDialog.Error.pattern", new Object[] { e.getMessage() }));
+				return;
+			}
+			this.search = search;
+			this.results.clear();
+			this.table.setItemCount(0);
+			this.startTime = System.currentTimeMillis();
+			this.searchButton.setText(getResourceString("searchDialog.Stop.text"));
+			final boolean useIndex = this.indexButton.getSelection();
+			final Thread thread = new Thread(() -> search.run(useIndex), "File Search");
+			thread.setDaemon(true);
+			thread.start();
+			this.update(search);
+		}
+		/**
+		 * Shows the results that a search has found since the last update,
+		 * and schedules the next update while the search is running.
+		 *
+		 * @param search the search
+		 */
+		void update(final FileSearch search) {
+			if (this.shell.isDisposed() || (this.search != search)) {
+				return;
+			}
+			final boolean done = search.done; // read before the results are taken, so none are missed
+			final FileEntry[] entries = search.takeResults();
+			if (entries.length > 0) {
+				Collections.addAll(this.results, entries);
+				this.table.setItemCount(this.results.size());
+			}
+			final Object[] args = { Integer.valueOf(this.results.size()), Integer.valueOf(search.examined.get()),
+				Long.valueOf(System.currentTimeMillis() - this.startTime) };
+			if (done) {
+				this.statusLabel.setText(getResourceString(search.indexed ? "searchDialog.Indexed.text" : "searchDialog.Done.text", args));
+				this.searchButton.setText(getResourceString("searchDialog.Start.text"));
+			} else {
+				this.statusLabel.setText(getResourceString("searchDialog.Searching.text", args));
+				FileViewer.this.display.timerExec(POLL_MILLIS, () -> this.update(search));
+			}
+		}
+		/**
+		 * Shows the directory of the selected result in the viewer.
+		 */
+		void showResult() {
+			final int index = this.table.getSelectionIndex();
+			if (index == -1) {
+				return;
+			}
+			final FileEntry entry = this.results.get(index);
+			notifySelectedDirectory(entry.directory ? entry.file : entry.file.getParentFile());
+		}
+		void showError(final String message) {
+			final MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.OK);
+			box.setText(getResourceString("searchDialog.title"));
+			box.setMessage(message);
+			box.open();
+		}
+	}
 }
@@ -15,7 +15,9 @@ package org.eclipse.swt.examples.fileviewer;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.swt.SWT;
@@ -29,6 +31,12 @@ import org.eclipse.swt.widgets.Display;
  * Manages icons for the application.
  * This is necessary as we could easily end up creating thousands of icons
  * bearing the same image.
+ * <p>
+ * Program icons are kept in a least-recently-used cache of at most
+ * MAX_PROGRAM_ICONS images. Their image data can be decoded on any thread
+ * with getImageData(), while the images themselves are only created and
+ * disposed on the UI thread.
+ * </p>
  */
 class IconCache {
 	// Stock images
@@ -73,7 +81,12 @@ class IconCache {
 		cursorWait = 1;
 	public Cursor stockCursors[];
 	// Cached icons
-	private Map<Program, Image> iconCache; /* map Program to Image */
+	public static final int MAX_PROGRAM_ICONS = 128;
+	private Display display;
+	private Map<Program, Image> iconCache; /* map Program to Image, in access order */
+	private final List<Image> evictedIcons = new ArrayList<>(); /* evicted but not yet disposed */
+	private Runnable evictionListener;
+	private int hitCount = 0, missCount = 0;
 
 	public IconCache() {
 	}
@@ -102,7 +115,18 @@ class IconCache {
 				display.getSystemCursor(SWT.CURSOR_WAIT)
 			};
 		}
-		this.iconCache = new HashMap<>();
+		this.display = display;
+		this.iconCache = new LinkedHashMap<Program, Image>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Program, Image> eldest) {
+				if (this.size() <= MAX_PROGRAM_ICONS) {
+					return false;
+				}
+				IconCache.this.evict(eldest.getValue());
+				return true;
+			}
+		};
 	}
 	/**
 	 * Frees the resources
@@ -122,6 +146,10 @@ class IconCache {
 			}
 			this.iconCache = null;
 		}
+		for (final Image image : this.evictedIcons) {
+			image.dispose();
+		}
+		this.evictedIcons.clear();
 		this.stockCursors = null;
 	}
 	/**
@@ -143,21 +171,72 @@ class IconCache {
 		return result;
 	}
 	/**
-	 * Gets an image for a file associated with a given program
+	 * Decodes the icon of a program. May be called on any thread.
 	 *
 	 * @param program the Program
+	 * @return the image data of the icon, or null if the program has none
 	 */
-	public Image getIconFromProgram(final Program program) {
+	public static ImageData getImageData(final Program program) {
+		return program.getImageData();
+	}
+	/**
+	 * Gets an image for a file associated with a given program.
+	 * Must be called on the UI thread.
+	 *
+	 * @param program the Program
+	 * @param imageData the icon of the program, as returned by getImageData()
+	 */
+	public Image getIconFromProgram(final Program program, final ImageData imageData) {
 		Image image = this.iconCache.get(program);
-		if (image == null) {
-			final ImageData imageData = program.getImageData();
-			if (imageData != null) {
-				image = new Image(null, imageData, imageData.getTransparencyMask());
-				this.iconCache.put(program, image);
-			} else {
-				image = this.stockImages[this.iconFile];
-			}
+		if (image != null) {
+			this.hitCount++;
+			return image;
+		}
+		this.missCount++;
+		if (imageData == null) {
+			return this.stockImages[this.iconFile];
 		}
+		image = new Image(this.display, imageData, imageData.getTransparencyMask());
+		this.iconCache.put(program, image);
 		return image;
 	}
+	/**
+	 * Sets the listener that is run before evicted icons are disposed.
+	 * It must make sure that no widget shows them any more.
+	 *
+	 * @param listener the listener, or null
+	 */
+	public void setEvictionListener(final Runnable listener) {
+		this.evictionListener = listener;
+	}
+	/**
+	 * Returns the number of program icons that were found in the cache.
+	 */
+	public int getHitCount() {
+		return this.hitCount;
+	}
+	/**
+	 * Returns the number of program icons that were not found in the cache.
+	 */
+	public int getMissCount() {
+		return this.missCount;
+	}
+	/*
+	 * Disposes an evicted icon once the current event has been handled,
+	 * since widgets may still be showing it.
+	 */
+	private void evict(final Image image) {
+		this.evictedIcons.add(image);
+		if (this.evictedIcons.size() == 1) {
+			this.display.asyncExec(() -> {
+				if (this.evictionListener != null) {
+					this.evictionListener.run();
+				}
+				for (final Image evicted : this.evictedIcons) {
+					evicted.dispose();
+				}
+				this.evictedIcons.clear();
+			});
+		}
+	}
 }
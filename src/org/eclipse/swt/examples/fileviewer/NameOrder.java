@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.fileviewer;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The order in which the viewer shows file names.
+ * <p>
+ * Names are compared ignoring case first and then exactly, so that
+ * names differing only in case have a stable order. Optionally, runs
+ * of digits are compared by their value ("file2" before "file10"), or
+ * names are compared with the collator of the default locale.
+ * </p><p>
+ * Sorting computes the case-folded name, or the collation key, of each
+ * name once, and then sorts these keys with Arrays.sort, or with
+ * Arrays.parallelSort for large directories.
+ * </p><p>
+ * The order is chosen when the viewer starts, with the system property
+ * org.eclipse.swt.examples.fileviewer.sort set to "natural" or "locale".
+ * </p>
+ */
+class NameOrder {
+	static final int PARALLEL_THRESHOLD = 8192; // smaller arrays are sorted faster on one thread
+
+	static final NameOrder IGNORE_CASE = new NameOrder(false, null);
+	static final NameOrder NATURAL = new NameOrder(true, null);
+	static final NameOrder DEFAULT = forName(System.getProperty("org.eclipse.swt.examples.fileviewer.sort", ""));
+
+	final boolean natural; // true to compare runs of digits by value
+	final Collator collator; // null to compare case-folded names
+	final Comparator<Key> keyOrder;
+
+	/**
+	 * The precomputed sort key of a name.
+	 */
+	static class Key {
+		final String folded; // null if the collation key is used
+		final CollationKey collationKey; // null if the folded name is used
+		final String name;
+		final int index; // the position of the item before sorting
+
+		Key(final String folded, final CollationKey collationKey, final String name, final int index) {
+			this.folded = folded;
+			this.collationKey = collationKey;
+			this.name = name;
+			this.index = index;
+		}
+	}
+
+	NameOrder(final boolean natural, final Collator collator) {
+		this.natural = natural;
+		this.collator = collator;
+		Comparator<Key> order;
+		if (collator != null) {
+			order = (a, b) -> a.collationKey.compareTo(b.collationKey);
+		} else if (natural) {
+			order = (a, b) -> compareNatural(a.folded, b.folded);
+		} else {
+			order = (a, b) -> a.folded.compareTo(b.folded);
+		}
+		this.keyOrder = order.thenComparing(key -> key.name);
+	}
+
+	static NameOrder forName(final String name) {
+		switch (name) {
+		case "natural":
+			return NATURAL;
+		case "locale":
+			return new NameOrder(false, Collator.getInstance());
+		default:
+			return IGNORE_CASE;
+		}
+	}
+
+	/**
+	 * Compares two names. Gives the same order as sorting.
+	 *
+	 * @param a the first name
+	 * @param b the second name
+	 * @return negative, zero or positive if the first name sorts before, with or after the second
+	 */
+	int compare(final String a, final String b) {
+		int compare;
+		if (this.collator != null) {
+			compare = this.collator.compare(a, b);
+		} else if (this.natural) {
+			compare = compareNatural(fold(a), fold(b));
+		} else {
+			compare = a.compareToIgnoreCase(b);
+		}
+		if (compare == 0) {
+			compare = a.compareTo(b);
+		}
+		return compare;
+	}
+
+	/**
+	 * Sorts an array by name.
+	 *
+	 * @param items the items to sort
+	 * @param name returns the name of an item
+	 */
+	<T> void sort(final T[] items, final Function<? super T, String> name) {
+		final Key[] keys = this.keys(Arrays.asList(items), name);
+		final T[] copy = items.clone();
+		for (int i = 0; i < keys.length; ++i) {
+			items[i] = copy[keys[i].index];
+		}
+	}
+
+	/**
+	 * Sorts a list by name.
+	 *
+	 * @param items the items to sort
+	 * @param name returns the name of an item
+	 */
+	@SuppressWarnings("unchecked")
+	<T> void sort(final List<T> items, final Function<? super T, String> name) {
+		final Key[] keys = this.keys(items, name);
+		final Object[] copy = items.toArray();
+		for (int i = 0; i < keys.length; ++i) {
+			items.set(i, (T) copy[keys[i].index]);
+		}
+	}
+
+	/*
+	 * Computes the keys of the items and returns them sorted.
+	 */
+	<T> Key[] keys(final List<T> items, final Function<? super T, String> name) {
+		final Key[] keys = new Key[items.size()];
+		for (int i = 0; i < keys.length; ++i) {
+			final String string = name.apply(items.get(i));
+			keys[i] = (this.collator != null) ? new Key(null, this.collator.getCollationKey(string), string, i)
+				: new Key(fold(string), null, string, i);
+		}
+		if (keys.length >= PARALLEL_THRESHOLD) {
+			Arrays.parallelSort(keys, this.keyOrder);
+		} else {
+			Arrays.sort(keys, this.keyOrder);
+		}
+		return keys;
+	}
+
+	/**
+	 * Folds the case of a name the way String.compareToIgnoreCase does,
+	 * so that comparing folded names gives the same order.
+	 *
+	 * @param name the name
+	 * @return the folded name, the name itself if folding does not change it
+	 */
+	static String fold(final String name) {
+		char[] chars = null;
+		for (int i = 0; i < name.length(); ++i) {
+			final char c = name.charAt(i);
+			final char folded = Character.toLowerCase(Character.toUpperCase(c));
+			if (folded != c) {
+				if (chars == null) {
+					chars = name.toCharArray();
+				}
+				chars[i] = folded;
+			}
+		}
+		return (chars == null) ? name : new String(chars);
+	}
+
+	/**
+	 * Compares two names, comparing runs of ASCII digits by their value.
+	 * Numbers of equal value compare equal regardless of leading zeros.
+	 *
+	 * @param a the first name
+	 * @param b the second name
+	 * @return negative, zero or positive if the first name sorts before, with or after the second
+	 */
+	static int compareNatural(final String a, final String b) {
+		int i = 0, j = 0;
+		while ((i < a.length()) && (j < b.length())) {
+			final char ca = a.charAt(i);
+			final char cb = b.charAt(j);
+			if (isDigit(ca) && isDigit(cb)) {
+				while ((i < a.length()) && (a.charAt(i) == '0')) {
+					++i;
+				}
+				while ((j < b.length()) && (b.charAt(j) == '0')) {
+					++j;
+				}
+				int endA = i, endB = j;
+				while ((endA < a.length()) && isDigit(a.charAt(endA))) {
+					++endA;
+				}
+				while ((endB < b.length()) && isDigit(b.charAt(endB))) {
+					++endB;
+				}
+				// A longer number without leading zeros is larger
+				final int compare = (endA - i) - (endB - j);
+				if (compare != 0) {
+					return compare;
+				}
+				for (; i < endA; ++i, ++j) {
+					if (a.charAt(i) != b.charAt(j)) {
+						return a.charAt(i) - b.charAt(j);
+					}
+				}
+			} else {
+				if (ca != cb) {
+					return ca - cb;
+				}
+				++i;
+				++j;
+			}
+		}
+		return (a.length() - i) - (b.length() - j);
+	}
+
+	private static boolean isDigit(final char c) {
+		return (c >= '0') && (c <= '9');
+	}
+}
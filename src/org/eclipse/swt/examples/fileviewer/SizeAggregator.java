@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.fileviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Computes the total size and the number of files and folders of a
+ * selection, including the contents of its folders, like du does.
+ * <p>
+ * Every folder is listed by a task of its own, so the folders of a tree
+ * are read in parallel. Symbolic links are counted but not followed. The
+ * totals grow while the tasks run, so the UI can show them as they are
+ * found. The totals of large folders are remembered together with the
+ * modification time of the folder; a folder whose time has not changed
+ * is not listed again. Changes deeper in the tree do not change that
+ * time, so the viewer invalidates the folders that it sees changing.
+ * The totals of at most MAX_CACHED_FOLDERS folders are remembered; the
+ * least recently used ones are forgotten first.
+ * </p>
+ */
+class SizeAggregator {
+	static final int MIN_CACHED_ENTRIES = 64; // smaller trees are listed again rather than remembered
+	static final int MAX_CACHED_FOLDERS = 4096; // folders whose totals are remembered
+	static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * The totals of a folder, valid while its modification time is unchanged.
+	 */
+	static class Totals {
+		final long lastModified;
+		final long bytes;
+		final int files;
+		final int directories; // not counting the folder itself
+
+		Totals(final long lastModified, final long bytes, final int files, final int directories) {
+			this.lastModified = lastModified;
+			this.bytes = bytes;
+			this.files = files;
+			this.directories = directories;
+		}
+	}
+
+	/**
+	 * The running totals of one selection.
+	 */
+	static class Job {
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicInteger files = new AtomicInteger();
+		final AtomicInteger directories = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean cancelled = false;
+
+		/**
+		 * Stops the job. The totals stay incomplete.
+		 */
+		void cancel() {
+			this.cancelled = true;
+		}
+
+		boolean isDone() {
+			return this.done.getCount() == 0;
+		}
+	}
+
+	final Map<File, Totals> cache = Collections.synchronizedMap(new LinkedHashMap<File, Totals>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<File, Totals> eldest) {
+			return this.size() > MAX_CACHED_FOLDERS;
+		}
+	});
+
+	/**
+	 * Starts computing the totals of some files and folders.
+	 *
+	 * @param files the files and folders
+	 * @param listener called on a pool thread when the job is done, also if it was cancelled
+	 * @return the job, whose totals grow until it is done
+	 */
+	Job start(final File[] files, final Consumer<Job> listener) {
+		final Job job = new Job();
+		POOL.execute(() -> {
+			try {
+				final List<SizeTask> tasks = new ArrayList<>();
+				for (final File file : files) {
+					if (!this.count(file.toPath(), job, tasks)) {
+						break;
+					}
+				}
+				for (final SizeTask task : tasks) {
+					task.join();
+				}
+			} finally {
+				job.done.countDown();
+				listener.accept(job);
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * Forgets the totals of a folder and of the folders that contain it.
+	 *
+	 * @param dir the folder whose contents changed
+	 */
+	void invalidate(final File dir) {
+		for (File file = dir; file != null; file = file.getParentFile()) {
+			this.cache.remove(file);
+		}
+	}
+
+	/**
+	 * Forgets all totals.
+	 */
+	void clear() {
+		this.cache.clear();
+	}
+
+	/*
+	 * Adds a file to the totals of a job, or forks a task for a folder.
+	 * Returns false if the job was cancelled.
+	 */
+	boolean count(final Path path, final Job job, final List<SizeTask> tasks) {
+		if (job.cancelled) {
+			return false;
+		}
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (final IOException e) {
+			return true; // removed or unreadable
+		}
+		if (attributes.isDirectory()) {
+			job.directories.incrementAndGet();
+			final SizeTask task = new SizeTask(path.toFile(), attributes.lastModifiedTime().toMillis(), job);
+			task.fork();
+			tasks.add(task);
+		} else {
+			job.files.incrementAndGet();
+			job.bytes.addAndGet(attributes.size());
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the totals of one folder. Returns null if the job was cancelled.
+	 */
+	class SizeTask extends RecursiveTask<Totals> {
+		private static final long serialVersionUID = 1L;
+		final File dir;
+		final long lastModified;
+		final Job job;
+
+		SizeTask(final File dir, final long lastModified, final Job job) {
+			this.dir = dir;
+			this.lastModified = lastModified;
+			this.job = job;
+		}
+
+		@Override
+		protected Totals compute() {
+			final Totals cached = SizeAggregator.this.cache.get(this.dir);
+			if ((cached != null) && (cached.lastModified == this.lastModified)) {
+				this.job.bytes.addAndGet(cached.bytes);
+				this.job.files.addAndGet(cached.files);
+				this.job.directories.addAndGet(cached.directories);
+				return cached;
+			}
+			long bytes = 0;
+			int files = 0, directories = 0;
+			final List<SizeTask> tasks = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir.toPath())) {
+				for (final Path path : stream) {
+					if (this.job.cancelled) {
+						break;
+					}
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (final IOException e) {
+						continue; // removed or unreadable
+					}
+					if (attributes.isDirectory()) {
+						directories++;
+						this.job.directories.incrementAndGet();
+						final SizeTask task = new SizeTask(path.toFile(), attributes.lastModifiedTime().toMillis(), this.job);
+						task.fork();
+						tasks.add(task);
+					} else {
+						files++;
+						bytes += attributes.size();
+						this.job.files.incrementAndGet();
+						this.job.bytes.addAndGet(attributes.size());
+					}
+				}
+			} catch (IOException | DirectoryIteratorException | SecurityException e) {
+				// what could be read is counted
+			}
+			boolean complete = !this.job.cancelled;
+			for (int i = tasks.size() - 1; i >= 0; i--) {
+				final Totals totals = tasks.get(i).join();
+				if (totals == null) {
+					complete = false;
+				} else {
+					bytes += totals.bytes;
+					files += totals.files;
+					directories += totals.directories;
+				}
+			}
+			if (!complete) {
+				return null;
+			}
+			final Totals totals = new Totals(this.lastModified, bytes, files, directories);
+			if ((files + directories) >= MIN_CACHED_ENTRIES) {
+				SizeAggregator.this.cache.put(this.dir, totals);
+			}
+			return totals;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2021 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.imageanalyzer;
+
+import static org.eclipse.swt.examples.imageanalyzer.ImageAnalyzer.bundle;
+import static org.eclipse.swt.examples.imageanalyzer.ImageAnalyzer.createMsg;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTError;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+
+/**
+ * Analyzes, and optionally converts, all of the images in a directory tree
+ * without opening a window.
+ * <p>
+ * The images are decoded in parallel by a bounded pool of threads, and one
+ * line per file is written to a CSV report with the same information the
+ * Image Analyzer shows for a single image, together with the time it took
+ * to load and convert it. A throughput summary is printed at the end.
+ * </p>
+ * <pre>
+ * ImageAnalyzer --batch &lt;dir&gt; --report &lt;file.csv&gt; [--convert &lt;type&gt;] [--output &lt;dir&gt;] [--threads &lt;n&gt;]
+ * </pre>
+ */
+class BatchAnalyzer {
+	static final String BATCH = "--batch";
+	static final String[] IMAGE_EXTENSIONS = {"bmp", "gif", "ico", "jfif", "jpeg", "jpg", "png", "tif", "tiff"};
+	static final String[] CONVERT_EXTENSIONS = {"bmp", "gif", "ico", "jpg", "png", "tif"};
+	static final int[] CONVERT_TYPES = {SWT.IMAGE_BMP, SWT.IMAGE_GIF, SWT.IMAGE_ICO, SWT.IMAGE_JPEG, SWT.IMAGE_PNG, SWT.IMAGE_TIFF};
+	static final String REPORT_HEADER = "file,type,width,height,depth,transparency,frames,delays_ms,bytes,load_ms,load_mb_per_s,convert_ms,convert_bytes,error";
+
+	Path root; // the directory to analyze
+	Path report; // the CSV file to write
+	Path output; // the directory to write converted images to
+	String convertExtension; // the extension of converted images, or null to not convert
+	int convertType = SWT.IMAGE_UNDEFINED;
+	int threads = Runtime.getRuntime().availableProcessors();
+
+	/*
+	 * The outcome of analyzing one file.
+	 */
+	static class Result {
+		String row;
+		long bytes, loadNanos, convertNanos;
+		boolean failed, converted;
+	}
+
+	static boolean isBatch(final String[] args) {
+		for (final String arg : args) {
+			if (BATCH.equals(arg)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the batch described by the command line arguments.
+	 *
+	 * @param args the command line arguments
+	 * @return the process exit code
+	 */
+	static int run(final String[] args) {
+		final BatchAnalyzer analyzer = new BatchAnalyzer();
+		if (!analyzer.parse(args)) {
+			System.err.println(bundle.getString("Batch_usage"));
+			return 2;
+		}
+		try {
+			return analyzer.analyze();
+		} catch (final IOException e) {
+			System.err.println(createMsg(bundle.getString("Batch_failed"), e.getMessage()));
+			return 1;
+		}
+	}
+
+	boolean parse(final String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case BATCH:
+					this.root = Paths.get(args[++i]);
+					break;
+				case "--report":
+					this.report = Paths.get(args[++i]);
+					break;
+				case "--output":
+					this.output = Paths.get(args[++i]);
+					break;
+				case "--threads":
+					this.threads = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				case "--convert":
+					final String extension = args[++i].toLowerCase(Locale.ROOT);
+					for (int j = 0; j < CONVERT_EXTENSIONS.length; j++) {
+						if (CONVERT_EXTENSIONS[j].equals(extension)
+								|| ((CONVERT_TYPES[j] == SWT.IMAGE_JPEG) && extension.equals("jpeg"))
+								|| ((CONVERT_TYPES[j] == SWT.IMAGE_TIFF) && extension.equals("tiff"))) {
+							this.convertExtension = CONVERT_EXTENSIONS[j];
+							this.convertType = CONVERT_TYPES[j];
+						}
+					}
+					if (this.convertExtension == null) {
+						return false;
+					}
+					break;
+				default:
+					return false;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			return false;
+		}
+		if ((this.root == null) || (this.report == null) || !Files.isDirectory(this.root)) {
+			return false;
+		}
+		if ((this.convertExtension != null) && (this.output == null)) {
+			this.output = this.report.toAbsolutePath().resolveSibling("converted");
+		}
+		return true;
+	}
+
+	int analyze() throws IOException {
+		final List<Path> files;
+		try (Stream<Path> stream = Files.walk(this.root)) {
+			files = stream.filter(path -> Files.isRegularFile(path) && isImage(path)).sorted().collect(Collectors.toList());
+		}
+
+		// Decode on a fixed number of threads. The queue is bounded, so when
+		// it is full the walking thread decodes the next image itself instead
+		// of queueing up more work.
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(this.threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		final long startTime = System.nanoTime();
+		final List<Future<Result>> futures = new ArrayList<>(files.size());
+		for (final Path file : files) {
+			futures.add(executor.submit(() -> this.analyze(file)));
+		}
+
+		int failed = 0, converted = 0;
+		long bytes = 0, loadNanos = 0, convertNanos = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(this.report, StandardCharsets.UTF_8)) {
+			writer.write(REPORT_HEADER);
+			writer.newLine();
+			for (final Future<Result> future : futures) {
+				final Result result = future.get();
+				writer.write(result.row);
+				writer.newLine();
+				bytes += result.bytes;
+				loadNanos += result.loadNanos;
+				convertNanos += result.convertNanos;
+				if (result.failed) {
+					failed++;
+				}
+				if (result.converted) {
+					converted++;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (final ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+		System.out.println(createMsg(bundle.getString("Batch_summary"),
+			Integer.valueOf(files.size()), Integer.valueOf(failed), Long.valueOf(Math.round(seconds * 1000)),
+			Double.valueOf(files.size() / seconds), Double.valueOf(bytes / seconds / (1024 * 1024)),
+			Long.valueOf(loadNanos / 1000000)));
+		if (this.convertExtension != null) {
+			System.out.println(createMsg(bundle.getString("Batch_converted"),
+				Integer.valueOf(converted), this.output, Long.valueOf(convertNanos / 1000000)));
+		}
+		return failed == 0 ? 0 : 1;
+	}
+
+	/*
+	 * Loads one file, and converts it if requested, on a worker thread.
+	 */
+	Result analyze(final Path file) {
+		final Result result = new Result();
+		final List<Object> row = new ArrayList<>();
+		row.add(this.root.relativize(file));
+		try {
+			result.bytes = Files.size(file);
+			final ImageLoader loader = new ImageLoader();
+			long startTime = System.nanoTime();
+			final ImageData[] data = loader.load(file.toString());
+			result.loadNanos = System.nanoTime() - startTime;
+
+			final ImageData imageData = data[0];
+			final StringBuilder delays = new StringBuilder();
+			for (final ImageData frame : data) {
+				if (delays.length() > 0) {
+					delays.append(';');
+				}
+				delays.append(frame.delayTime * 10);
+			}
+			row.add(ImageAnalyzer.fileTypeString(imageData.type, imageData.depth));
+			row.add(Integer.valueOf(imageData.width));
+			row.add(Integer.valueOf(imageData.height));
+			row.add(Integer.valueOf(imageData.depth));
+			row.add(transparencyString(imageData));
+			row.add(Integer.valueOf(data.length));
+			row.add(delays);
+			row.add(Long.valueOf(result.bytes));
+			row.add(millis(result.loadNanos));
+			row.add(String.format(Locale.ROOT, "%.2f", result.bytes / Math.max(1e-9, result.loadNanos / 1e9) / (1024 * 1024)));
+
+			if (this.convertExtension != null) {
+				String name = this.root.relativize(file).toString();
+				name = name.substring(0, name.lastIndexOf('.') + 1) + this.convertExtension;
+				final Path target = this.output.resolve(name);
+				Files.createDirectories(target.getParent());
+				startTime = System.nanoTime();
+				loader.save(target.toString(), this.convertType);
+				result.convertNanos = System.nanoTime() - startTime;
+				result.converted = true;
+				row.add(millis(result.convertNanos));
+				row.add(Long.valueOf(Files.size(target)));
+			} else {
+				row.add("");
+				row.add("");
+			}
+			row.add("");
+		} catch (RuntimeException | SWTError | IOException | OutOfMemoryError e) {
+			// SWTException, and anything else a decoder or writer throws on a corrupt file
+			result.failed = true;
+			while (row.size() < 13) {
+				row.add("");
+			}
+			row.add(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+		}
+		result.row = row.stream().map(value -> csvField(String.valueOf(value))).collect(Collectors.joining(","));
+		return result;
+	}
+
+	static boolean isImage(final Path path) {
+		final String name = path.getFileName().toString();
+		final String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+		for (final String extension : IMAGE_EXTENSIONS) {
+			if (extension.equals(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String transparencyString(final ImageData imageData) {
+		switch (imageData.getTransparencyType()) {
+		case SWT.TRANSPARENCY_ALPHA:
+			return imageData.alphaData != null ? "alpha" : "alpha " + imageData.alpha;
+		case SWT.TRANSPARENCY_MASK:
+			return "mask";
+		case SWT.TRANSPARENCY_PIXEL:
+			return "pixel " + imageData.transparentPixel;
+		default:
+			return "none";
+		}
+	}
+
+	static String millis(final long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	static String csvField(final String value) {
+		if ((value.indexOf(',') == -1) && (value.indexOf('"') == -1) && (value.indexOf('\n') == -1)) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
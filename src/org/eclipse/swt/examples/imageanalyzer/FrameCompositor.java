@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2021 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.imageanalyzer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Composites the frames of an animated image onto a logical screen,
+ * honoring the disposal method of each frame, and caches the finished
+ * screens when all of them fit into MAX_CACHE_BYTES.
+ * <p>
+ * Frames are always composited in order starting from frame 0, so a
+ * frame looks the same no matter when it is requested. When the frames
+ * are cached, playing the animation again allocates nothing. When they
+ * do not fit, nothing is cached: a loop would evict every frame before
+ * it is shown again, so each frame is composited onto the screen as it
+ * is played instead. All methods must be called on the UI thread.
+ * </p>
+ */
+class FrameCompositor {
+	static final long MAX_CACHE_BYTES = 64 * 1024 * 1024; // upper bound for the cached screens
+
+	final Display display;
+	final ImageData[] frames;
+	final int width, height;
+	final Color canvasBackground; // used to clear the screen
+	final Color background; // used by DM_FILL_BACKGROUND, null to use the canvas background
+	final Map<Integer, Image> cache; // null if the frames do not fit
+	Image screen; // the screen that frames are composited onto
+	GC screenGC;
+	Image previous; // the area under the last frame, if it has to be restored
+	int nextIndex = 0; // the index of the next frame to composite
+
+	/**
+	 * Creates a compositor for the frames of the given loader.
+	 *
+	 * @param display the display to create the images on
+	 * @param loader the loader that read the frames
+	 * @param canvasBackground the color of the empty screen
+	 * @param showBackground whether DM_FILL_BACKGROUND should use the background pixel of the image
+	 */
+	FrameCompositor(final Display display, final ImageLoader loader, final Color canvasBackground, final boolean showBackground) {
+		this.display = display;
+		this.frames = loader.data;
+		this.width = Math.max(1, loader.logicalScreenWidth);
+		this.height = Math.max(1, loader.logicalScreenHeight);
+		this.canvasBackground = canvasBackground;
+		final int backgroundPixel = loader.backgroundPixel;
+		this.background = showBackground && (backgroundPixel != -1)
+			? new Color(this.frames[0].palette.getRGB(backgroundPixel))
+			: null;
+
+		final long screenBytes = 4L * this.width * this.height;
+		this.cache = (screenBytes * this.frames.length) <= MAX_CACHE_BYTES
+			? new HashMap<>(this.frames.length * 2)
+			: null;
+	}
+
+	/**
+	 * Returns the composited screen for the given frame. The image belongs to
+	 * the compositor; it shows the frame until another frame is requested.
+	 *
+	 * @param index the index of the frame
+	 * @return the screen as it looks after the frame has been drawn
+	 */
+	Image getFrame(final int index) {
+		if (this.cache != null) {
+			final Image cached = this.cache.get(Integer.valueOf(index));
+			if (cached != null) {
+				return cached;
+			}
+		} else if ((this.screen != null) && (index == (this.nextIndex - 1))) {
+			return this.screen;
+		}
+		if ((this.screen == null) || (index < this.nextIndex)) {
+			this.reset();
+		}
+		while (this.nextIndex <= index) {
+			this.compositeNext();
+		}
+		return this.cache != null ? this.cache.get(Integer.valueOf(index)) : this.screen;
+	}
+
+	/*
+	 * Clears the screen and starts over with the first frame.
+	 */
+	void reset() {
+		if (this.screen == null) {
+			this.screen = new Image(this.display, this.width, this.height);
+			this.screenGC = new GC(this.screen);
+		}
+		if (this.previous != null) {
+			this.previous.dispose();
+			this.previous = null;
+		}
+		this.screenGC.setBackground(this.canvasBackground);
+		this.screenGC.fillRectangle(0, 0, this.width, this.height);
+		this.nextIndex = 0;
+	}
+
+	/*
+	 * Disposes of the previous frame, draws the next one and caches a copy of the screen
+	 * if the frames are cached.
+	 */
+	void compositeNext() {
+		if (this.nextIndex > 0) {
+			final ImageData last = this.frames[this.nextIndex - 1];
+			if (last.disposalMethod == SWT.DM_FILL_BACKGROUND) {
+				// Fill with the background color before drawing.
+				this.screenGC.setBackground(this.background != null ? this.background : this.canvasBackground);
+				this.screenGC.fillRectangle(last.x, last.y, last.width, last.height);
+			} else if ((last.disposalMethod == SWT.DM_FILL_PREVIOUS) && (this.previous != null)) {
+				// Restore what was under the previous frame before drawing.
+				this.screenGC.drawImage(this.previous, last.x, last.y);
+			}
+		}
+		if (this.previous != null) {
+			this.previous.dispose();
+			this.previous = null;
+		}
+
+		final ImageData frame = this.frames[this.nextIndex];
+		if (frame.disposalMethod == SWT.DM_FILL_PREVIOUS) {
+			this.previous = new Image(this.display, frame.width, frame.height);
+			this.screenGC.copyArea(this.previous, frame.x, frame.y);
+		}
+		final Image frameImage = new Image(this.display, frame);
+		try {
+			this.screenGC.drawImage(frameImage, 0, 0, frame.width, frame.height, frame.x, frame.y, frame.width, frame.height);
+		} finally {
+			frameImage.dispose();
+		}
+		if (this.cache != null) {
+			this.cache.put(Integer.valueOf(this.nextIndex), new Image(this.display, this.screen, SWT.IMAGE_COPY));
+		}
+		this.nextIndex++;
+	}
+
+	/**
+	 * Disposes of all cached screens and the working images.
+	 */
+	void dispose() {
+		if (this.cache != null) {
+			for (final Image image : this.cache.values()) {
+				image.dispose();
+			}
+			this.cache.clear();
+		}
+		if (this.previous != null) {
+			this.previous.dispose();
+		}
+		if (this.screenGC != null) {
+			this.screenGC.dispose();
+		}
+		if (this.screen != null) {
+			this.screen.dispose();
+		}
+	}
+}
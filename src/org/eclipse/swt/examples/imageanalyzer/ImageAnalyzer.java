@@ -15,12 +15,20 @@ package org.eclipse.swt.examples.imageanalyzer;
 
 import static org.eclipse.swt.events.SelectionListener.widgetSelectedAdapter;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.WeakHashMap;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.SWTError;
@@ -83,7 +91,7 @@ public class ImageAnalyzer {
 	Button previousButton, nextButton, animateButton;
 	StyledText dataText;
 	Sash sash;
-	Color whiteColor, blackColor, redColor, greenColor, blueColor, canvasBackground;
+	Color whiteColor, blackColor, redColor, greenColor, blueColor;
 	Font fixedWidthFont;
 	Cursor crossCursor;
 	GC imageCanvasGC;
@@ -99,7 +107,11 @@ public class ImageAnalyzer {
 	boolean showMask = false; // used to display an icon mask or transparent image mask
 	boolean showBackground = false; // used to display the background of an animated image
 	boolean animate = false; // used to animate a multi-image file
-	Thread animateThread; // draws animated images
+	FrameCompositor compositor; // composites and caches the frames of an animation
+	Image animationFrame; // the composited frame currently on the screen
+	Runnable animateTimer = this::animateStep; // shows the next animation frame
+	long animateDeadline; // when the current animation frame is due, in nanoseconds
+	int animateRepeatCount; // the number of loops left in the animation
 	Thread incrementalThread; // draws incremental images
 	String lastPath; // used to seed the file dialog
 	String currentName; // the current image file or URL name
@@ -109,8 +121,19 @@ public class ImageAnalyzer {
 	int imageDataIndex; // the index of the current image data
 	ImageData imageData; // the currently-displayed image data
 	Image image; // the currently-displayed image
+	ImagePyramid pyramid; // pre-scaled tiles of the currently-displayed image
 	List<ImageLoaderEvent> incrementalEvents; // incremental image events
 	long loadTime = 0; // the time it took to load the current image
+	long loadBytes = 0; // the size of the current image file, or 0 if it is not known
+	double loadRate = 0; // the bytes per second at which the current image file was read
+	long loadPeakHeap = 0; // the peak heap usage while loading the current image
+	boolean loadMapped = false; // whether the current image was read through a mapped buffer
+	boolean mappedLoad = true; // used to read local files through a memory-mapped buffer
+	Shell histogramShell; // shows the histograms of the current image data, when open
+	Canvas histogramCanvas;
+	Map<ImageData, ImageStatistics> statistics = new WeakHashMap<>(); // the statistics computed so far
+	ImageData statisticsPending; // the image data whose statistics are being computed
+	ImageData statisticsFailed; // the last image data whose statistics could not be computed
 
 	static final int INDEX_DIGITS = 4;
 	static final int ALPHA_CHARS = 5;
@@ -191,6 +214,10 @@ public class ImageAnalyzer {
 	}
 
 	public static void main(final String [] args) {
+		if (BatchAnalyzer.isBatch(args)) {
+			// Analyze a whole directory without opening a window.
+			System.exit(BatchAnalyzer.run(args));
+		}
 		final Display display = new Display();
 		final ImageAnalyzer imageAnalyzer = new ImageAnalyzer();
 		final Shell shell = imageAnalyzer.open(display);
@@ -213,14 +240,7 @@ public class ImageAnalyzer {
 		this.shell.addControlListener(ControlListener.controlResizedAdapter(this::resizeShell));
 		this.shell.addShellListener(ShellListener.shellClosedAdapter(e -> {
 			this.animate = false; // stop any animation in progress
-			if (this.animateThread != null) {
-				// wait for the thread to die before disposing the shell.
-				while (this.animateThread.isAlive()) {
-					if (!this.display.readAndDispatch()) {
-            this.display.sleep();
-          }
-				}
-			}
+			this.display.timerExec(-1, this.animateTimer);
 			e.doit = true;
 		}));
 		this.shell.addDisposeListener(e -> {
@@ -228,6 +248,12 @@ public class ImageAnalyzer {
 			if (this.image != null) {
         this.image.dispose();
       }
+			if (this.pyramid != null) {
+				this.pyramid.dispose();
+			}
+			if (this.compositor != null) {
+				this.compositor.dispose();
+			}
 			this.fixedWidthFont.dispose();
 		});
 
@@ -649,6 +675,7 @@ public class ImageAnalyzer {
 		this.shell.setMenuBar(menuBar);
 		this.createFileMenu(menuBar);
 		this.createAlphaMenu(menuBar);
+		this.createAnalysisMenu(menuBar);
 		return menuBar;
 	}
 
@@ -676,6 +703,12 @@ public class ImageAnalyzer {
 		item.setText(bundle.getString("Reopen"));
 		item.addSelectionListener(widgetSelectedAdapter(event -> this.menuReopen()));
 
+		// File -> Memory-Mapped Loading
+		item = new MenuItem(fileMenu, SWT.CHECK);
+		item.setText(bundle.getString("Memory_mapped"));
+		item.setSelection(this.mappedLoad);
+		item.addSelectionListener(widgetSelectedAdapter(event -> this.mappedLoad = ((MenuItem)event.widget).getSelection()));
+
 		new MenuItem(fileMenu, SWT.SEPARATOR);
 
 		// File -> Load File... (natively)
@@ -742,6 +775,20 @@ public class ImageAnalyzer {
 		item.addSelectionListener(widgetSelectedAdapter(event -> this.menuComposeAlpha(ALPHA_Y)));
 	}
 
+	void createAnalysisMenu(final Menu menuBar) {
+		// Analysis menu
+		MenuItem item = new MenuItem(menuBar, SWT.CASCADE);
+		item.setText(bundle.getString("Analysis"));
+		final Menu analysisMenu = new Menu(this.shell, SWT.DROP_DOWN);
+		item.setMenu(analysisMenu);
+
+		// Analysis -> Histogram
+		item = new MenuItem(analysisMenu, SWT.PUSH);
+		item.setText(bundle.getString("Histogram"));
+		item.setAccelerator(SWT.MOD1 + 'H');
+		item.addSelectionListener(widgetSelectedAdapter(event -> this.menuHistogram()));
+	}
+
 	void menuComposeAlpha(final int alpha_op) {
 		if (this.image == null) {
       return;
@@ -773,6 +820,7 @@ public class ImageAnalyzer {
 					default: break;
 				}
 			}
+			this.statistics.remove(this.imageData);
 			this.displayImage(this.imageData);
 		} finally {
 			this.shell.setCursor(null);
@@ -805,6 +853,7 @@ public class ImageAnalyzer {
 			final long startTime = System.currentTimeMillis();
 			final Image newImage = new Image(this.display, filename);
 			this.loadTime = System.currentTimeMillis() - startTime; // don't include getImageData in load time
+			this.loadBytes = 0;
 			this.imageData = newImage.getImageData();
 
 			// Cache the filename.
@@ -855,9 +904,7 @@ public class ImageAnalyzer {
 				this.incrementalThreadStart();
 			}
 			// Read the new image(s) from the chosen file.
-			final long startTime = System.currentTimeMillis();
-			this.imageDataArray = this.loader.load(filename);
-			this.loadTime = System.currentTimeMillis() - startTime;
+			this.imageDataArray = this.loadFile(filename);
 			if (this.imageDataArray.length > 0) {
 				// Cache the filename.
 				this.currentName = filename;
@@ -872,8 +919,9 @@ public class ImageAnalyzer {
 				// Display the first image in the file.
 				this.imageDataIndex = 0;
 				this.displayImage(this.imageDataArray[this.imageDataIndex]);
+				this.showLoadStatistics();
 			}
-		} catch (SWTException | SWTError | OutOfMemoryError e) {
+		} catch (SWTException | SWTError | IOException | OutOfMemoryError e) {
 			this.showErrorDialog(bundle.getString("Loading_lc"), filename, e);
 			this.loader = oldLoader;
 		} finally {
@@ -911,6 +959,7 @@ public class ImageAnalyzer {
 				final long startTime = System.currentTimeMillis();
 				this.imageDataArray = this.loader.load(stream);
 				this.loadTime = System.currentTimeMillis() - startTime;
+				this.loadBytes = 0;
 			}
 			if (this.imageDataArray.length > 0) {
 				this.currentName = urlname;
@@ -935,6 +984,57 @@ public class ImageAnalyzer {
 		}
 	}
 
+	/*
+	 * Read the image(s) in a local file with the current loader, either through
+	 * a memory-mapped buffer or through the loader's own file stream, and record
+	 * the load time, throughput and peak heap usage.
+	 */
+	ImageData[] loadFile(final String filename) throws IOException {
+		final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+			}
+		}
+
+		final ImageData[] data;
+		final long startTime = System.nanoTime();
+		if (this.mappedLoad) {
+			try (InputStream stream = MappedInputStream.open(Paths.get(filename))) {
+				data = this.loader.load(stream);
+			}
+		} else {
+			data = this.loader.load(filename);
+		}
+		final long nanos = System.nanoTime() - startTime;
+
+		this.loadTime = nanos / 1000000;
+		this.loadBytes = new File(filename).length();
+		this.loadRate = this.loadBytes / (Math.max(1, nanos) / 1e9);
+		this.loadMapped = this.mappedLoad;
+		this.loadPeakHeap = 0;
+		for (final MemoryPoolMXBean pool : heapPools) {
+			this.loadPeakHeap += pool.getPeakUsage().getUsed();
+		}
+		return data;
+	}
+
+	/*
+	 * Show how fast the current image file was read, and how much heap
+	 * was needed to decode it, in the status line.
+	 */
+	void showLoadStatistics() {
+		if (this.loadBytes <= 0) {
+			return;
+		}
+		this.statusLabel.setText(createMsg(bundle.getString("Load_statistics"),
+			Long.valueOf(this.loadBytes),
+			bundle.getString(this.loadMapped ? "Mapped_lc" : "Stream_lc"),
+			Double.valueOf(this.loadRate / (1024 * 1024)),
+			Long.valueOf(this.loadPeakHeap / (1024 * 1024))));
+	}
+
 	/*
 	 * Called to start a thread that draws incremental images
 	 * as they are loaded.
@@ -1277,14 +1377,14 @@ public class ImageAnalyzer {
 					final long startTime = System.currentTimeMillis();
 					newImageData = this.loader.load(stream);
 					this.loadTime = System.currentTimeMillis() - startTime;
+					this.loadBytes = 0;
 				}
 			} else {
-				final long startTime = System.currentTimeMillis();
-				newImageData = this.loader.load(this.fileName);
-				this.loadTime = System.currentTimeMillis() - startTime;
+				newImageData = this.loadFile(this.fileName);
 			}
 			this.imageDataIndex = 0;
 			this.displayImage(newImageData[this.imageDataIndex]);
+			this.showLoadStatistics();
 
 		} catch (Exception | OutOfMemoryError e) {
 			this.showErrorDialog(bundle.getString("Reloading_lc"), this.currentName, e);
@@ -1481,191 +1581,140 @@ public class ImageAnalyzer {
 	 * Called when the Animate button is pressed.
 	 */
 	void animate() {
+		if (this.compositor != null) {
+			// Stop the animation in progress.
+			this.display.timerExec(-1, this.animateTimer);
+			this.animate = false;
+			this.postAnimation();
+			return;
+		}
 		this.animate = !this.animate;
 		if (this.animate && (this.image != null) && (this.imageDataArray.length > 1)) {
-			this.animateThread = new Thread(bundle.getString("Animation")) {
-				@Override
-				public void run() {
-					// Pre-animation widget setup.
-					ImageAnalyzer.this.preAnimation();
-
-					// Animate.
-					try {
-						ImageAnalyzer.this.animateLoop();
-					} catch (final SWTException e) {
-						ImageAnalyzer.this.display.syncExec(() -> ImageAnalyzer.this.showErrorDialog(createMsg(bundle.getString("Creating_image"),
-									Integer.valueOf(ImageAnalyzer.this.imageDataIndex+1)),
-									ImageAnalyzer.this.currentName, e));
-					}
+			// Pre-animation widget setup.
+			this.preAnimation();
 
-					// Post animation widget reset.
-					ImageAnalyzer.this.postAnimation();
-				}
-			};
-			this.animateThread.setDaemon(true);
-			this.animateThread.start();
+			// Composite the frames once and play them back from the UI thread.
+			this.compositor = new FrameCompositor(this.display, this.loader, this.imageCanvas.getBackground(), this.showBackground);
+			this.animateRepeatCount = this.loader.repeatCount;
+			this.animateDeadline = System.nanoTime();
+			this.animateStep();
 		}
 	}
 
 	/*
-	 * Loop through all of the images in a multi-image file
-	 * and display them one after another.
+	 * Show the next frame of a multi-image file and schedule the one after it.
+	 * Each frame is scheduled relative to when the previous one was due, rather
+	 * than to when it was actually drawn, so that timer latency does not add up
+	 * over a long animation.
 	 */
-	void animateLoop() {
-		// Create an off-screen image to draw on, and a GC to draw with.
-		// Both are disposed after the animation.
-		final Image offScreenImage = new Image(this.display, this.loader.logicalScreenWidth, this.loader.logicalScreenHeight);
-		final GC offScreenImageGC = new GC(offScreenImage);
+	void animateStep() {
+		if (this.shell.isDisposed()) {
+			return;
+		}
+		if (!this.animate || ((this.loader.repeatCount != 0) && (this.animateRepeatCount <= 0))) {
+			// Post animation widget reset.
+			this.postAnimation();
+			return;
+		}
 
+		// Get the next image data and its composited frame.
+		this.imageDataIndex = (this.imageDataIndex + 1) % this.imageDataArray.length;
+		this.imageData = this.imageDataArray[this.imageDataIndex];
 		try {
-			// Use syncExec to get the background color of the imageCanvas.
-			this.display.syncExec(() -> this.canvasBackground = this.imageCanvas.getBackground());
+			this.animationFrame = this.compositor.getFrame(this.imageDataIndex);
+		} catch (final SWTException e) {
+			this.showErrorDialog(createMsg(bundle.getString("Creating_image"),
+				Integer.valueOf(this.imageDataIndex+1)),
+				this.currentName, e);
+			this.animate = false;
+			this.postAnimation();
+			return;
+		}
 
-			// Fill the off-screen image with the background color of the canvas.
-			offScreenImageGC.setBackground(this.canvasBackground);
-			offScreenImageGC.fillRectangle(
-				0,
-				0,
-				this.loader.logicalScreenWidth,
-				this.loader.logicalScreenHeight);
+		// Draw the composited frame to the screen.
+		this.imageCanvasGC.drawImage(this.animationFrame, 0, 0);
+		this.updateHistogram();
 
-			// Draw the current image onto the off-screen image.
-			offScreenImageGC.drawImage(
-				this.image,
-				0,
-				0,
-				this.imageData.width,
-				this.imageData.height,
-				this.imageData.x,
-				this.imageData.y,
-				this.imageData.width,
-				this.imageData.height);
-
-			int repeatCount = this.loader.repeatCount;
-			while (this.animate && ((this.loader.repeatCount == 0) || (repeatCount > 0))) {
-				if (this.imageData.disposalMethod == SWT.DM_FILL_BACKGROUND) {
-					// Fill with the background color before drawing.
-					Color bgColor = null;
-					final int backgroundPixel = this.loader.backgroundPixel;
-					if (this.showBackground && (backgroundPixel != -1)) {
-						// Fill with the background color.
-						final RGB backgroundRGB = this.imageData.palette.getRGB(backgroundPixel);
-						bgColor = new Color(backgroundRGB);
-					}
-					offScreenImageGC.setBackground(bgColor != null ? bgColor : this.canvasBackground);
-					offScreenImageGC.fillRectangle(
-						this.imageData.x,
-						this.imageData.y,
-						this.imageData.width,
-						this.imageData.height);
-				} else if (this.imageData.disposalMethod == SWT.DM_FILL_PREVIOUS) {
-					// Restore the previous image before drawing.
-					offScreenImageGC.drawImage(
-						this.image,
-						0,
-						0,
-						this.imageData.width,
-						this.imageData.height,
-						this.imageData.x,
-						this.imageData.y,
-						this.imageData.width,
-						this.imageData.height);
-				}
-
-				// Get the next image data.
-				this.imageDataIndex = (this.imageDataIndex + 1) % this.imageDataArray.length;
-				this.imageData = this.imageDataArray[this.imageDataIndex];
-				this.image.dispose();
-				this.image = new Image(this.display, this.imageData);
-
-				// Draw the new image data.
-				offScreenImageGC.drawImage(
-					this.image,
-					0,
-					0,
-					this.imageData.width,
-					this.imageData.height,
-					this.imageData.x,
-					this.imageData.y,
-					this.imageData.width,
-					this.imageData.height);
-
-				// Draw the off-screen image to the screen.
-				this.imageCanvasGC.drawImage(offScreenImage, 0, 0);
-
-				// Sleep for the specified delay time before drawing again.
-				try {
-					Thread.sleep(visibleDelay(this.imageData.delayTime * 10));
-				} catch (final InterruptedException e) {
-				}
+		// If we have just drawn the last image in the set,
+		// then decrement the repeat count.
+		if (this.imageDataIndex == (this.imageDataArray.length - 1)) {
+			this.animateRepeatCount--;
+		}
 
-				// If we have just drawn the last image in the set,
-				// then decrement the repeat count.
-				if (this.imageDataIndex == (this.imageDataArray.length - 1)) {
-          repeatCount--;
-        }
-			}
-		} finally {
-			offScreenImage.dispose();
-			offScreenImageGC.dispose();
+		// Wait for the specified delay time before drawing again. If we have
+		// fallen more than a frame behind, start counting from now instead
+		// of trying to catch up.
+		final long delay = visibleDelay(this.imageData.delayTime * 10) * 1000000L;
+		final long now = System.nanoTime();
+		this.animateDeadline += delay;
+		if ((now - this.animateDeadline) > delay) {
+			this.animateDeadline = now + delay;
 		}
+		this.display.timerExec((int) Math.max(0, (this.animateDeadline - now) / 1000000L), this.animateTimer);
 	}
 
 	/*
 	 * Pre animation setup.
 	 */
 	void preAnimation() {
-		this.display.syncExec(() -> {
-			// Change the label of the Animate button to 'Stop'.
-			this.animateButton.setText(bundle.getString("Stop"));
-
-			// Disable anything we don't want the user
-			// to select during the animation.
-			this.previousButton.setEnabled(false);
-			this.nextButton.setEnabled(false);
-			this.backgroundCombo.setEnabled(false);
-			this.scaleXCombo.setEnabled(false);
-			this.scaleYCombo.setEnabled(false);
-			this.alphaCombo.setEnabled(false);
-			this.incrementalCheck.setEnabled(false);
-			this.transparentCheck.setEnabled(false);
-			this.maskCheck.setEnabled(false);
-			// leave backgroundCheck enabled
-
-			// Reset the scale combos and scrollbars.
-			this.resetScaleCombos();
-			this.resetScrollBars();
-		});
+		// Change the label of the Animate button to 'Stop'.
+		this.animateButton.setText(bundle.getString("Stop"));
+
+		// Disable anything we don't want the user
+		// to select during the animation.
+		this.previousButton.setEnabled(false);
+		this.nextButton.setEnabled(false);
+		this.backgroundCombo.setEnabled(false);
+		this.scaleXCombo.setEnabled(false);
+		this.scaleYCombo.setEnabled(false);
+		this.alphaCombo.setEnabled(false);
+		this.incrementalCheck.setEnabled(false);
+		this.transparentCheck.setEnabled(false);
+		this.maskCheck.setEnabled(false);
+		// the compositor has already read showBackground
+		this.backgroundCheck.setEnabled(false);
+
+		// Reset the scale combos and scrollbars.
+		this.resetScaleCombos();
+		this.resetScrollBars();
 	}
 
 	/*
 	 * Post animation reset.
 	 */
 	void postAnimation() {
-		this.display.syncExec(() -> {
-			// Enable anything we disabled before the animation.
-			this.previousButton.setEnabled(true);
-			this.nextButton.setEnabled(true);
-			this.backgroundCombo.setEnabled(true);
-			this.scaleXCombo.setEnabled(true);
-			this.scaleYCombo.setEnabled(true);
-			this.alphaCombo.setEnabled(true);
-			this.incrementalCheck.setEnabled(true);
-			this.transparentCheck.setEnabled(true);
-			this.maskCheck.setEnabled(true);
-
-			// Reset the label of the Animate button.
-			this.animateButton.setText(bundle.getString("Animate"));
-
-			if (this.animate) {
-				// If animate is still true, we finished the
-				// full number of repeats. Leave the image as-is.
-				this.animate = false;
-			} else {
-				// Redisplay the current image and its palette.
-				this.displayImage(this.imageDataArray[this.imageDataIndex]);
-			}
-		});
+		// Release the composited frames.
+		this.animationFrame = null;
+		if (this.compositor != null) {
+			this.compositor.dispose();
+			this.compositor = null;
+		}
+
+		// Enable anything we disabled before the animation.
+		this.previousButton.setEnabled(true);
+		this.nextButton.setEnabled(true);
+		this.backgroundCombo.setEnabled(true);
+		this.scaleXCombo.setEnabled(true);
+		this.scaleYCombo.setEnabled(true);
+		this.alphaCombo.setEnabled(true);
+		this.incrementalCheck.setEnabled(true);
+		this.transparentCheck.setEnabled(true);
+		this.maskCheck.setEnabled(true);
+		this.backgroundCheck.setEnabled(true);
+
+		// Reset the label of the Animate button.
+		this.animateButton.setText(bundle.getString("Animate"));
+
+		if (this.animate) {
+			// If animate is still true, we finished the
+			// full number of repeats. Leave the image as-is.
+			this.animate = false;
+			this.image.dispose();
+			this.image = new Image(this.display, this.imageData);
+		} else {
+			// Redisplay the current image and its palette.
+			this.displayImage(this.imageDataArray[this.imageDataIndex]);
+		}
 	}
 
 	/*
@@ -1713,12 +1762,26 @@ public class ImageAnalyzer {
 		if (this.image != null) {
       this.image.dispose();
     }
+		if (this.pyramid != null) {
+			this.pyramid.dispose();
+			this.pyramid = null;
+		}
+		this.animationFrame = null;
 
 		try {
 			// Cache the new image and imageData.
 			this.image = new Image(this.display, newImageData);
 			this.imageData = newImageData;
 
+			// Start pre-scaling the new image for painting. Images with
+			// a transparency mask (icons) are small, so they are drawn directly.
+			if (newImageData.getTransparencyType() != SWT.TRANSPARENCY_MASK) {
+				this.pyramid = new ImagePyramid(this.display, newImageData, () -> {
+					if (!this.imageCanvas.isDisposed()) {
+						this.imageCanvas.redraw();
+					}
+				});
+			}
 		} catch (final SWTException e) {
 			this.showErrorDialog(bundle.getString("Creating_from") + " ", this.currentName, e);
 			this.image = null;
@@ -1824,10 +1887,25 @@ public class ImageAnalyzer {
 		this.resetScrollBars();
 		this.paletteCanvas.redraw();
 		this.imageCanvas.redraw();
+		this.updateHistogram();
 	}
 
 	void paintImage(final PaintEvent event) {
 		final GC gc = event.gc;
+		if (this.animationFrame != null) {
+			/* An animation is in progress, so draw the composited frame. */
+			final Rectangle bounds = this.imageCanvas.getBounds();
+			final Rectangle frameBounds = this.animationFrame.getBounds();
+			final int w = frameBounds.width, h = frameBounds.height;
+			if ((this.ix + w) < bounds.width) {
+				gc.fillRectangle(this.ix + w, 0, bounds.width - (this.ix + w), bounds.height);
+			}
+			if ((this.iy + h) < bounds.height) {
+				gc.fillRectangle(0, this.iy + h, this.ix + w, bounds.height - (this.iy + h));
+			}
+			gc.drawImage(this.animationFrame, this.ix, this.iy);
+			return;
+		}
 		Image paintImage = this.image;
 
 		/* If the user wants to see the transparent pixel in its actual color,
@@ -1858,17 +1936,31 @@ public class ImageAnalyzer {
       }
 		}
 
-		/* Draw the image */
-		gc.drawImage(
-			paintImage,
-			0,
-			0,
-			this.imageData.width,
-			this.imageData.height,
-			this.ix + this.imageData.x,
-			this.iy + this.imageData.y,
-			w,
-			h);
+		/* Draw the image, using only the pre-scaled tiles that intersect
+		 * the damaged area when they are available for this image.
+		 */
+		final boolean drawn = (paintImage == this.image)
+			&& (this.pyramid != null)
+			&& (this.pyramid.source == this.imageData)
+			&& this.pyramid.draw(
+				gc,
+				this.ix + this.imageData.x,
+				this.iy + this.imageData.y,
+				w,
+				h,
+				new Rectangle(event.x, event.y, event.width, event.height));
+		if (!drawn) {
+			gc.drawImage(
+				paintImage,
+				0,
+				0,
+				this.imageData.width,
+				this.imageData.height,
+				this.ix + this.imageData.x,
+				this.iy + this.imageData.y,
+				w,
+				h);
+		}
 
 		/* If there is a mask and the user wants to see it, draw it. */
 		if (this.showMask && (this.imageData.getTransparencyType() != SWT.TRANSPARENCY_NONE)) {
@@ -1894,6 +1986,141 @@ public class ImageAnalyzer {
 		}
 	}
 
+	/*
+	 * Open the histogram window, or bring it to the front if it is already open.
+	 */
+	void menuHistogram() {
+		if ((this.histogramShell != null) && !this.histogramShell.isDisposed()) {
+			this.histogramShell.setActive();
+			return;
+		}
+		this.histogramShell = new Shell(this.shell, SWT.SHELL_TRIM);
+		this.histogramShell.setText(bundle.getString("Histogram_title"));
+		this.histogramShell.setLayout(new GridLayout());
+		this.histogramCanvas = new Canvas(this.histogramShell, SWT.NONE);
+		this.histogramCanvas.setLayoutData(new GridData(GridData.FILL_BOTH));
+		this.histogramCanvas.addPaintListener(this::paintHistogram);
+		this.histogramShell.setSize(320, 620);
+		this.histogramShell.open();
+		this.updateHistogram();
+	}
+
+	/*
+	 * Called when the displayed image data changes.
+	 * Redraw the histogram window, and start computing the statistics
+	 * of the new image data if they are not known yet.
+	 */
+	void updateHistogram() {
+		if ((this.histogramShell == null) || this.histogramShell.isDisposed() || (this.imageData == null)) {
+			return;
+		}
+		if (!this.statistics.containsKey(this.imageData) && (this.statisticsPending == null)
+				&& (this.statisticsFailed != this.imageData)) {
+			this.computeStatistics(this.imageData);
+		}
+		this.histogramCanvas.redraw();
+	}
+
+	/*
+	 * Compute the statistics of the given image data in the background.
+	 * Only one computation runs at a time; when it is done, the statistics
+	 * of whatever image data is displayed by then are computed next.
+	 */
+	void computeStatistics(final ImageData data) {
+		this.statisticsPending = data;
+		final Thread thread = new Thread(bundle.getString("Histogram_title")) {
+			@Override
+			public void run() {
+				ImageStatistics result = null;
+				try {
+					result = ImageStatistics.compute(data);
+				} catch (final RuntimeException | OutOfMemoryError e) {
+					// leave the statistics of this image data unknown
+				} finally {
+					final ImageStatistics computed = result;
+					if (!ImageAnalyzer.this.display.isDisposed()) {
+						ImageAnalyzer.this.display.asyncExec(() -> {
+							ImageAnalyzer.this.statisticsPending = null;
+							if (computed != null) {
+								ImageAnalyzer.this.statistics.put(data, computed);
+							} else {
+								ImageAnalyzer.this.statisticsFailed = data;
+							}
+							// redraws, and computes the statistics of the image data displayed now
+							ImageAnalyzer.this.updateHistogram();
+						});
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void paintHistogram(final PaintEvent event) {
+		final GC gc = event.gc;
+		final Rectangle area = this.histogramCanvas.getClientArea();
+		gc.setBackground(this.whiteColor);
+		gc.fillRectangle(area);
+		gc.setForeground(this.blackColor);
+		final ImageStatistics stats = this.imageData == null ? null : this.statistics.get(this.imageData);
+		if (stats == null) {
+			final String key = this.imageData == null ? "Histogram_no_image"
+				: this.statisticsFailed == this.imageData ? "Histogram_failed" : "Histogram_computing";
+			gc.drawString(bundle.getString(key), 10, 10, true);
+			return;
+		}
+
+		// Draw the histogram of each channel, one under the other.
+		final int width = Math.max(1, area.width - 20);
+		int y = 10;
+		y = this.paintHistogramChannel(gc, bundle.getString("Red"), stats.red, this.redColor, y, width);
+		y = this.paintHistogramChannel(gc, bundle.getString("Green"), stats.green, this.greenColor, y, width);
+		y = this.paintHistogramChannel(gc, bundle.getString("Blue"), stats.blue, this.blueColor, y, width);
+		y = this.paintHistogramChannel(gc, bundle.getString("Alpha"), stats.alpha, this.blackColor, y, width);
+
+		// Then the summary and the most frequent colors.
+		gc.drawString(createMsg(bundle.getString("Histogram_summary"), Long.valueOf(stats.pixelCount),
+			Integer.valueOf(stats.uniqueColors), Long.valueOf(stats.nanos / 1000000)), 10, y, true);
+		y += 20;
+		gc.drawString(bundle.getString("Histogram_top"), 10, y, true);
+		for (int i = 0; i < stats.topColors.length; i++) {
+			y += 16;
+			final int color = stats.topColors[i];
+			gc.setBackground(new Color(color >>> 16, (color >>> 8) & 0xFF, color & 0xFF));
+			gc.fillRectangle(10, y + 2, 12, 12);
+			gc.drawRectangle(10, y + 2, 12, 12);
+			gc.drawString(createMsg(bundle.getString("Histogram_color"),
+				toHexByteString(color >>> 16) + toHexByteString((color >>> 8) & 0xFF) + toHexByteString(color & 0xFF),
+				Double.valueOf(stats.topCounts[i] / (double) stats.pixelCount)), 30, y, true);
+		}
+	}
+
+	/*
+	 * Draw one histogram at the given y coordinate, scaled to its largest
+	 * bucket, and return the y coordinate below it.
+	 */
+	int paintHistogramChannel(final GC gc, final String name, final int[] histogram, final Color color, int y, final int width) {
+		final int height = 60;
+		gc.drawString(name, 10, y, true);
+		y += 16;
+		int max = 1;
+		for (final int count : histogram) {
+			max = Math.max(max, count);
+		}
+		gc.setForeground(color);
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] != 0) {
+				final int x = 10 + ((i * width) / histogram.length);
+				final int h = Math.max(1, (int) (((long) histogram[i] * height) / max));
+				gc.drawLine(x, y + height, x, (y + height) - h);
+			}
+		}
+		gc.setForeground(this.blackColor);
+		gc.drawRectangle(10, y, width, height);
+		return y + height + 8;
+	}
+
 	void paintPalette(final PaintEvent event) {
 		final GC gc = event.gc;
 		gc.fillRectangle(this.paletteCanvas.getClientArea());
@@ -2372,11 +2599,15 @@ public class ImageAnalyzer {
 	 * Return a String describing the specified image file type.
 	 */
 	String fileTypeString(final int filetype) {
+		return fileTypeString(filetype, this.imageData.depth);
+	}
+
+	static String fileTypeString(final int filetype, final int depth) {
 		switch (filetype) {
     case SWT.IMAGE_BMP:
       return "BMP";
     case SWT.IMAGE_BMP_RLE:
-      return "RLE" + this.imageData.depth + " BMP";
+      return "RLE" + depth + " BMP";
     case SWT.IMAGE_OS2_BMP:
       return "OS/2 BMP";
     case SWT.IMAGE_GIF:
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2021 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.imageanalyzer;
+
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * A mip-map pyramid of an image, split into fixed size tiles.
+ * <p>
+ * Level 0 holds the image at its natural size, and every further level
+ * halves the previous one until the level fits into a single tile. The
+ * tile data for all levels is computed in a background thread; the tile
+ * images are created lazily on the UI thread the first time they are
+ * painted. Painting uses the smallest level that still has at least as
+ * many pixels as the destination, and only draws the tiles that intersect
+ * the damaged area of the canvas.
+ * </p>
+ */
+class ImagePyramid {
+	static final int TILE_SIZE = 256;
+
+	final Display display;
+	final ImageData source; // the image data the pyramid was built from
+	final Runnable levelReady; // run on the UI thread when a level that was missed becomes available
+	final int levelCount;
+	final int[] levelWidths, levelHeights, levelColumns;
+	final ImageData[][] tileData; // [level][row * columns + column], filled in by the build thread
+	final Image[][] tileImages; // [level][row * columns + column], only touched on the UI thread
+	volatile int wantedLevel = -1; // the last level that paint wanted but could not use yet
+	volatile boolean disposed = false;
+	Thread buildThread;
+
+	/**
+	 * Creates the pyramid for the given image data and starts building its levels.
+	 *
+	 * @param display the display used to create the tile images
+	 * @param imageData the image data; a copy is taken, so the caller may keep changing it
+	 * @param levelReady called on the UI thread when a level that was needed becomes available
+	 */
+	ImagePyramid(final Display display, final ImageData imageData, final Runnable levelReady) {
+		this.display = display;
+		this.source = imageData;
+		this.levelReady = levelReady;
+
+		int count = 1;
+		int width = imageData.width, height = imageData.height;
+		while ((width > TILE_SIZE) || (height > TILE_SIZE)) {
+			width = Math.max(1, (width + 1) / 2);
+			height = Math.max(1, (height + 1) / 2);
+			count++;
+		}
+		this.levelCount = count;
+		this.levelWidths = new int[count];
+		this.levelHeights = new int[count];
+		this.levelColumns = new int[count];
+		width = imageData.width;
+		height = imageData.height;
+		for (int i = 0; i < count; i++) {
+			this.levelWidths[i] = width;
+			this.levelHeights[i] = height;
+			this.levelColumns[i] = ((width - 1) / TILE_SIZE) + 1;
+			width = Math.max(1, (width + 1) / 2);
+			height = Math.max(1, (height + 1) / 2);
+		}
+		this.tileData = new ImageData[count][];
+		this.tileImages = new Image[count][];
+
+		// Work from a copy, so that temporary changes to the image data
+		// (for example, turning off the transparent pixel) do not race
+		// with the build thread.
+		final ImageData copy = (ImageData) imageData.clone();
+		this.buildThread = new Thread("Image Pyramid") {
+			@Override
+			public void run() {
+				ImagePyramid.this.build(copy);
+			}
+		};
+		this.buildThread.setDaemon(true);
+		this.buildThread.start();
+	}
+
+	/*
+	 * Computes the levels one after another, each from the previous one,
+	 * and publishes the tiles of each level as soon as it is complete.
+	 */
+	void build(final ImageData imageData) {
+		ImageData level = imageData;
+		for (int i = 0; (i < this.levelCount) && !this.disposed; i++) {
+			if (i > 0) {
+				level = level.scaledTo(this.levelWidths[i], this.levelHeights[i]);
+			}
+			final int columns = this.levelColumns[i];
+			final int rows = ((this.levelHeights[i] - 1) / TILE_SIZE) + 1;
+			final ImageData[] tiles = new ImageData[columns * rows];
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					if (this.disposed) {
+						return;
+					}
+					final int x = column * TILE_SIZE, y = row * TILE_SIZE;
+					tiles[(row * columns) + column] = createTile(level, x, y,
+						Math.min(TILE_SIZE, this.levelWidths[i] - x),
+						Math.min(TILE_SIZE, this.levelHeights[i] - y));
+				}
+			}
+			synchronized (this) {
+				this.tileData[i] = tiles;
+			}
+			if ((this.wantedLevel == i) && (this.levelReady != null) && !this.display.isDisposed()) {
+				this.display.asyncExec(() -> {
+					if (!this.disposed) {
+						this.levelReady.run();
+					}
+				});
+			}
+		}
+	}
+
+	/*
+	 * Copies a rectangular area of the given image data into a new image data.
+	 */
+	static ImageData createTile(final ImageData imageData, final int x, final int y, final int width, final int height) {
+		final ImageData tile = new ImageData(width, height, imageData.depth, imageData.palette);
+		tile.transparentPixel = imageData.transparentPixel;
+		tile.alpha = imageData.alpha;
+		final int[] pixels = new int[width];
+		final byte[] alphas = imageData.alphaData != null ? new byte[width] : null;
+		for (int row = 0; row < height; row++) {
+			imageData.getPixels(x, y + row, width, pixels, 0);
+			tile.setPixels(0, row, width, pixels, 0);
+			if (alphas != null) {
+				imageData.getAlphas(x, y + row, width, alphas, 0);
+				tile.setAlphas(0, row, width, alphas, 0);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Draws the part of the image that intersects the damaged area.
+	 *
+	 * @param gc the GC to draw on
+	 * @param x the x coordinate of the image on the canvas
+	 * @param y the y coordinate of the image on the canvas
+	 * @param width the scaled width of the image
+	 * @param height the scaled height of the image
+	 * @param damage the area of the canvas that needs to be painted
+	 * @return <code>false</code> if no level is available yet for this scale,
+	 *         in which case the caller has to draw the image itself
+	 */
+	boolean draw(final GC gc, final int x, final int y, final int width, final int height, final Rectangle damage) {
+		if ((width <= 0) || (height <= 0)) {
+			return true;
+		}
+
+		// Find the smallest level that is at least as big as the destination.
+		int wanted = 0;
+		while (((wanted + 1) < this.levelCount)
+				&& (this.levelWidths[wanted + 1] >= width)
+				&& (this.levelHeights[wanted + 1] >= height)) {
+			wanted++;
+		}
+
+		// Fall back to a larger level while the wanted one is still being built.
+		int level = wanted;
+		ImageData[] tiles = null;
+		synchronized (this) {
+			while ((level >= 0) && ((tiles = this.tileData[level]) == null)) {
+				level--;
+			}
+		}
+		this.wantedLevel = level == wanted ? -1 : wanted;
+		if (tiles == null) {
+			return false;
+		}
+		if (this.tileImages[level] == null) {
+			this.tileImages[level] = new Image[tiles.length];
+		}
+
+		// Map the damaged area into the coordinates of the level.
+		final int levelWidth = this.levelWidths[level], levelHeight = this.levelHeights[level];
+		final int left = (int) Math.max(0, (((long) (damage.x - x)) * levelWidth) / width);
+		final int top = (int) Math.max(0, (((long) (damage.y - y)) * levelHeight) / height);
+		final int right = (int) Math.min(levelWidth, ((((long) ((damage.x + damage.width) - x)) * levelWidth) + width - 1) / width);
+		final int bottom = (int) Math.min(levelHeight, ((((long) ((damage.y + damage.height) - y)) * levelHeight) + height - 1) / height);
+		if ((left >= right) || (top >= bottom)) {
+			return true;
+		}
+
+		final int columns = this.levelColumns[level];
+		for (int row = top / TILE_SIZE; row <= ((bottom - 1) / TILE_SIZE); row++) {
+			final int srcY = row * TILE_SIZE;
+			final int srcHeight = Math.min(TILE_SIZE, levelHeight - srcY);
+			final int destY = y + (int) ((((long) srcY) * height) / levelHeight);
+			final int destHeight = (y + (int) ((((long) (srcY + srcHeight)) * height) / levelHeight)) - destY;
+			for (int column = left / TILE_SIZE; column <= ((right - 1) / TILE_SIZE); column++) {
+				final int srcX = column * TILE_SIZE;
+				final int srcWidth = Math.min(TILE_SIZE, levelWidth - srcX);
+				final int destX = x + (int) ((((long) srcX) * width) / levelWidth);
+				final int destWidth = (x + (int) ((((long) (srcX + srcWidth)) * width) / levelWidth)) - destX;
+				if ((destWidth <= 0) || (destHeight <= 0)) {
+					continue;
+				}
+				final int index = (row * columns) + column;
+				Image tile = this.tileImages[level][index];
+				if (tile == null) {
+					tile = new Image(this.display, tiles[index]);
+					this.tileImages[level][index] = tile;
+				}
+				gc.drawImage(tile, 0, 0, srcWidth, srcHeight, destX, destY, destWidth, destHeight);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the build thread and disposes all tile images.
+	 * Must be called on the UI thread.
+	 */
+	void dispose() {
+		this.disposed = true;
+		for (final Image[] images : this.tileImages) {
+			if (images != null) {
+				for (final Image tile : images) {
+					if (tile != null) {
+						tile.dispose();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2021 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.imageanalyzer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Per-channel histograms, the alpha distribution and the most frequent
+ * colors of an image.
+ * <p>
+ * The statistics are computed straight from the pixel data of the image.
+ * The rows are split into chunks that are counted in parallel into primitive
+ * arrays, and the partial counts are then merged. Indexed images only count
+ * palette indices per pixel; the colors and channel histograms are derived
+ * from those counts afterwards.
+ * </p>
+ */
+class ImageStatistics {
+	static final int TOP_COLORS = 16;
+
+	final int[] red = new int[256], green = new int[256], blue = new int[256], alpha = new int[256];
+	long pixelCount;
+	int uniqueColors;
+	int[] topColors = new int[0]; // 0xRRGGBB, the most frequent first
+	int[] topCounts = new int[0];
+	long nanos; // the time it took to compute the statistics
+
+	/*
+	 * A map from 24-bit colors to counts, using open addressing over primitive arrays.
+	 */
+	static final class ColorCounts {
+		int[] keys, counts; // the length is a power of two
+		int shift; // 32 - log2(length), to hash with the top bits of the product
+		int size;
+
+		ColorCounts(final int capacity) {
+			this.keys = new int[capacity];
+			this.counts = new int[capacity];
+			this.shift = Integer.numberOfLeadingZeros(capacity) + 1;
+			Arrays.fill(this.keys, -1);
+		}
+
+		void add(final int color, final int count) {
+			final int mask = this.keys.length - 1;
+			int index = (color * 0x9E3779B1) >>> this.shift;
+			int key;
+			while (((key = this.keys[index]) != color) && (key != -1)) {
+				index = (index + 1) & mask;
+			}
+			if (key == -1) {
+				this.keys[index] = color;
+				this.counts[index] = count;
+				if (++this.size * 2 > this.keys.length) {
+					this.grow();
+				}
+			} else {
+				this.counts[index] += count;
+			}
+		}
+
+		void grow() {
+			final int[] oldKeys = this.keys, oldCounts = this.counts;
+			this.keys = new int[oldKeys.length * 2];
+			this.counts = new int[oldKeys.length * 2];
+			this.shift--;
+			Arrays.fill(this.keys, -1);
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != -1) {
+					this.add(oldKeys[i], oldCounts[i]);
+				}
+			}
+		}
+
+		ColorCounts merge(final ColorCounts other) {
+			final ColorCounts large = this.size >= other.size ? this : other;
+			final ColorCounts small = large == this ? other : this;
+			for (int i = 0; i < small.keys.length; i++) {
+				if (small.keys[i] != -1) {
+					large.add(small.keys[i], small.counts[i]);
+				}
+			}
+			return large;
+		}
+	}
+
+	/*
+	 * The counts of a range of rows.
+	 */
+	static final class Partial {
+		int[] indexCounts; // for indexed palettes, the count of each pixel value
+		ColorCounts colors; // for direct palettes, the count of each color
+		final int[] alpha = new int[256];
+		long transparentCount; // pixels that equal the transparent pixel of a direct palette
+
+		Partial merge(final Partial other) {
+			if (this.indexCounts != null) {
+				for (int i = 0; i < this.indexCounts.length; i++) {
+					this.indexCounts[i] += other.indexCounts[i];
+				}
+			} else {
+				this.colors = this.colors.merge(other.colors);
+			}
+			for (int i = 0; i < 256; i++) {
+				this.alpha[i] += other.alpha[i];
+			}
+			this.transparentCount += other.transparentCount;
+			return this;
+		}
+	}
+
+	/**
+	 * Computes the statistics of the given image data.
+	 *
+	 * @param imageData the image data, which must not change while this runs
+	 * @return the statistics
+	 */
+	static ImageStatistics compute(final ImageData imageData) {
+		final long startTime = System.nanoTime();
+		final ImageStatistics statistics = new ImageStatistics();
+		final int height = imageData.height;
+		final int chunks = Math.max(1, Math.min(height, ForkJoinPool.getCommonPoolParallelism() * 4));
+		final Partial total = IntStream.range(0, chunks).parallel()
+			.mapToObj(chunk -> countRows(imageData, (int) ((long) chunk * height / chunks), (int) ((long) (chunk + 1) * height / chunks)))
+			.reduce(Partial::merge)
+			.get();
+
+		// Turn the pixel counts into color counts.
+		final PaletteData palette = imageData.palette;
+		ColorCounts colors = total.colors;
+		if (total.indexCounts != null) {
+			final RGB[] rgbs = palette.getRGBs();
+			colors = new ColorCounts(64);
+			for (int i = 0; i < total.indexCounts.length; i++) {
+				if (total.indexCounts[i] > 0) {
+					final RGB rgb = (rgbs != null) && (i < rgbs.length) ? rgbs[i] : null;
+					colors.add(rgb == null ? 0 : (rgb.red << 16) | (rgb.green << 8) | rgb.blue, total.indexCounts[i]);
+				}
+			}
+		}
+
+		// Derive the channel histograms and the most frequent colors.
+		final long[] top = new long[TOP_COLORS]; // count << 24 | color, smallest first
+		int topSize = 0;
+		for (int i = 0; i < colors.keys.length; i++) {
+			final int color = colors.keys[i];
+			if (color == -1) {
+				continue;
+			}
+			final int count = colors.counts[i];
+			statistics.red[color >>> 16] += count;
+			statistics.green[(color >>> 8) & 0xFF] += count;
+			statistics.blue[color & 0xFF] += count;
+			final long entry = ((long) count << 24) | color;
+			if (topSize < TOP_COLORS) {
+				// Insert into the sorted array.
+				int j = topSize++;
+				while ((j > 0) && (top[j - 1] > entry)) {
+					top[j] = top[j - 1];
+					j--;
+				}
+				top[j] = entry;
+			} else if (entry > top[0]) {
+				// Drop the smallest entry and insert.
+				int j = 0;
+				while (((j + 1) < TOP_COLORS) && (top[j + 1] < entry)) {
+					top[j] = top[j + 1];
+					j++;
+				}
+				top[j] = entry;
+			}
+		}
+		statistics.uniqueColors = colors.size;
+		statistics.topColors = new int[topSize];
+		statistics.topCounts = new int[topSize];
+		for (int i = 0; i < topSize; i++) {
+			final long entry = top[topSize - 1 - i];
+			statistics.topColors[i] = (int) (entry & 0xFFFFFF);
+			statistics.topCounts[i] = (int) (entry >>> 24);
+		}
+
+		// Finish the alpha distribution.
+		System.arraycopy(total.alpha, 0, statistics.alpha, 0, 256);
+		statistics.pixelCount = (long) imageData.width * height;
+		if (imageData.getTransparencyType() == SWT.TRANSPARENCY_PIXEL) {
+			final long transparent = total.indexCounts != null
+				? (imageData.transparentPixel < total.indexCounts.length ? total.indexCounts[imageData.transparentPixel] : 0)
+				: total.transparentCount;
+			statistics.alpha[0] += (int) transparent;
+			statistics.alpha[255] -= (int) transparent;
+		}
+		statistics.nanos = System.nanoTime() - startTime;
+		return statistics;
+	}
+
+	/*
+	 * Decodes one row of direct pixels, in the byte order that ImageData uses for each depth.
+	 */
+	static void decodeRow(final byte[] data, int offset, final int depth, final int[] pixels) {
+		final int width = pixels.length;
+		switch (depth) {
+		case 32:
+			for (int x = 0; x < width; x++, offset += 4) {
+				pixels[x] = ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+			}
+			break;
+		case 24:
+			for (int x = 0; x < width; x++, offset += 3) {
+				pixels[x] = ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+			}
+			break;
+		case 16:
+			for (int x = 0; x < width; x++, offset += 2) {
+				pixels[x] = ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
+			}
+			break;
+		default:
+			for (int x = 0; x < width; x++, offset++) {
+				pixels[x] = data[offset] & 0xFF;
+			}
+			break;
+		}
+	}
+
+	/*
+	 * Counts the pixels and alpha values of the rows from start (inclusive) to end (exclusive).
+	 */
+	static Partial countRows(final ImageData imageData, final int start, final int end) {
+		final Partial partial = new Partial();
+		final PaletteData palette = imageData.palette;
+		final byte[] data = imageData.data;
+		final int width = imageData.width, depth = imageData.depth, bytesPerLine = imageData.bytesPerLine;
+		final int transparentPixel = imageData.transparentPixel;
+		if (!palette.isDirect) {
+			// Indexed palette: count the pixel values.
+			final int[] counts = partial.indexCounts = new int[1 << depth];
+			final int pixelsPerByte = 8 / depth, pixelMask = (1 << depth) - 1;
+			for (int y = start; y < end; y++) {
+				int offset = y * bytesPerLine;
+				if (depth == 8) {
+					for (int x = 0; x < width; x++) {
+						counts[data[offset++] & 0xFF]++;
+					}
+				} else {
+					for (int x = 0; x < width; x++) {
+						final int shift = 8 - (((x % pixelsPerByte) + 1) * depth);
+						counts[((data[offset + (x / pixelsPerByte)] & 0xFF) >>> shift) & pixelMask]++;
+					}
+				}
+			}
+		} else {
+			// Direct palette: decode each pixel into a color, counting runs of the same color at once.
+			final ColorCounts colors = partial.colors = new ColorCounts(1024);
+			final int redMask = palette.redMask, greenMask = palette.greenMask, blueMask = palette.blueMask;
+			final int redShift = palette.redShift, greenShift = palette.greenShift, blueShift = palette.blueShift;
+			final int[] pixels = new int[width];
+			int lastPixel = 0, lastColor = -1, run = 0;
+			for (int y = start; y < end; y++) {
+				decodeRow(data, y * bytesPerLine, depth, pixels);
+				for (int x = 0; x < width; x++) {
+					final int pixel = pixels[x];
+					if (pixel == transparentPixel) {
+						partial.transparentCount++;
+					}
+					if ((pixel == lastPixel) && (run > 0)) {
+						run++;
+						continue;
+					}
+					if (run > 0) {
+						colors.add(lastColor, run);
+					}
+					int r = pixel & redMask;
+					r = (redShift < 0) ? r >>> -redShift : r << redShift;
+					int g = pixel & greenMask;
+					g = (greenShift < 0) ? g >>> -greenShift : g << greenShift;
+					int b = pixel & blueMask;
+					b = (blueShift < 0) ? b >>> -blueShift : b << blueShift;
+					lastPixel = pixel;
+					lastColor = ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+					run = 1;
+				}
+			}
+			if (run > 0) {
+				colors.add(lastColor, run);
+			}
+		}
+
+		// Count the alpha values of the rows.
+		final int[] alpha = partial.alpha;
+		final int pixels = (end - start) * width;
+		if (imageData.alphaData != null) {
+			final byte[] alphaData = imageData.alphaData;
+			for (int i = start * width, last = end * width; i < last; i++) {
+				alpha[alphaData[i] & 0xFF]++;
+			}
+		} else if (imageData.alpha != -1) {
+			alpha[imageData.alpha & 0xFF] += pixels;
+		} else if (imageData.getTransparencyType() == SWT.TRANSPARENCY_MASK) {
+			final byte[] maskData = imageData.maskData;
+			final int maskBytesPerLine = ((((width + 7) / 8) + (imageData.maskPad - 1)) / imageData.maskPad) * imageData.maskPad;
+			for (int y = start; y < end; y++) {
+				final int offset = y * maskBytesPerLine;
+				for (int x = 0; x < width; x++) {
+					alpha[((maskData[offset + (x >> 3)] >> (7 - (x & 7))) & 1) != 0 ? 255 : 0]++;
+				}
+			}
+		} else {
+			// The transparent pixel, if any, is moved to 0 once all rows are counted.
+			alpha[255] += pixels;
+		}
+		return partial;
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2021 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.imageanalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An input stream that reads straight out of a byte buffer, typically a
+ * memory-mapped file, without copying the data into an intermediate heap
+ * buffer first.
+ */
+class MappedInputStream extends InputStream {
+	final ByteBuffer buffer;
+	int mark = 0;
+
+	MappedInputStream(final ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Opens the given file by mapping it into memory. Files that are too
+	 * large to be mapped into a single buffer are read through a buffered
+	 * file stream instead.
+	 *
+	 * @param path the file to open
+	 * @return a stream over the contents of the file
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	static InputStream open(final Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return new BufferedInputStream(Files.newInputStream(path));
+			}
+			// The mapping stays valid after the channel is closed.
+			return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+	}
+
+	@Override
+	public int read() {
+		return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(final byte[] bytes, final int offset, final int length) {
+		if (length == 0) {
+			return 0;
+		}
+		final int count = Math.min(length, this.buffer.remaining());
+		if (count == 0) {
+			return -1;
+		}
+		this.buffer.get(bytes, offset, count);
+		return count;
+	}
+
+	@Override
+	public long skip(final long n) {
+		final int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+		this.buffer.position(this.buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(final int readLimit) {
+		this.mark = this.buffer.position();
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.buffer.position(this.mark);
+	}
+}
@@ -0,0 +1,169 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.eclipse.swt.custom.StyledTextContent;
+
+/**
+ * Writes files so that they are replaced completely or not at all.
+ * <p>
+ * The new contents are written to a temporary file next to the file,
+ * forced to the disk and then moved over the file, atomically where the
+ * file system allows it. A crash or an error while writing leaves the
+ * old file as it was.
+ * </p>
+ */
+class AtomicFile {
+  static final int BLOCK_SIZE = 64 * 1024; // characters encoded at a time
+  static final int BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * Writes the contents of a file to a channel.
+   */
+  interface Contents {
+    void write(FileChannel channel) throws IOException;
+  }
+
+  /**
+   * Replaces a file.
+   *
+   * @param file the file to replace or create
+   * @param contents writes the new contents
+   * @throws IOException if the file cannot be written, in which case it is unchanged
+   */
+  static void write(final Path file, final Contents contents) throws IOException {
+    // replace the target of a link, not the link
+    final Path path = Files.isSymbolicLink(file) ? file.toRealPath() : file;
+    final Path temp = path.resolveSibling(path.getFileName() + "." //$NON-NLS-1$
+        + Long.toHexString(System.nanoTime()) + ".tmp"); //$NON-NLS-1$
+    boolean moved = false;
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE)) {
+        contents.write(channel);
+        channel.force(true);
+      }
+      if (Files.exists(path)) {
+        try {
+          Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(path));
+        } catch (final UnsupportedOperationException e) {
+          // not a POSIX file system
+        }
+      }
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      moved = true;
+    } finally {
+      if (!moved) {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+
+  /**
+   * Replaces a file with the text of a StyledText content. The text is
+   * encoded a few lines at a time, so no copy of the whole text is made.
+   *
+   * @param path the file to replace or create
+   * @param content the text
+   * @param charset the encoding of the file
+   * @throws IOException if the file cannot be written or the text cannot
+   *     be encoded, in which case the file is unchanged
+   */
+  static void write(final Path path, final StyledTextContent content, final Charset charset)
+      throws IOException {
+    write(path, channel -> {
+      final CharsetEncoder encoder = charset.newEncoder()
+          .onMalformedInput(CodingErrorAction.REPORT)
+          .onUnmappableCharacter(CodingErrorAction.REPORT);
+      final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      final int charCount = content.getCharCount();
+      int start = 0;
+      while (start < charCount) {
+        final int end = blockEnd(content, start);
+        final CharBuffer chars = CharBuffer.wrap(content.getTextRange(start, end - start));
+        encode(encoder, chars, bytes, channel, end == charCount, charset);
+        start = end;
+      }
+      if (charCount == 0) {
+        encode(encoder, CharBuffer.allocate(0), bytes, channel, true, charset);
+      }
+      while (encoder.flush(bytes).isOverflow()) {
+        drain(bytes, channel);
+      }
+      drain(bytes, channel);
+    });
+  }
+
+  /*
+   * Returns the end of the block that starts at an offset: the start of
+   * the first line after BLOCK_SIZE characters, or the end of a long line
+   * cut before BLOCK_SIZE characters without splitting a surrogate pair.
+   */
+  static int blockEnd(final StyledTextContent content, final int start) {
+    final int charCount = content.getCharCount();
+    if ((charCount - start) <= BLOCK_SIZE) {
+      return charCount;
+    }
+    final int line = content.getLineAtOffset(start + BLOCK_SIZE);
+    int end = content.getOffsetAtLine(line);
+    if (end <= start) {
+      end = start + BLOCK_SIZE;
+      if (Character.isHighSurrogate(content.getTextRange(end - 1, 1).charAt(0))) {
+        end--;
+      }
+    }
+    return end;
+  }
+
+  static void encode(final CharsetEncoder encoder, final CharBuffer chars, final ByteBuffer bytes,
+      final FileChannel channel, final boolean last, final Charset charset) throws IOException {
+    while (true) {
+      final CoderResult result = encoder.encode(chars, bytes, last);
+      if (result.isOverflow()) {
+        drain(bytes, channel);
+      } else if (result.isError()) {
+        throw new IOException(TextEditor.getResourceString("Cannot_encode") //$NON-NLS-1$
+            + charset.displayName());
+      } else {
+        return;
+      }
+    }
+  }
+
+  static void drain(final ByteBuffer bytes, final FileChannel channel) throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+}
@@ -0,0 +1,462 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+
+/**
+ * The text of the editor, kept as a sequence of immutable chunks of at
+ * most CHUNK_SIZE characters, each with the offsets of its lines.
+ * <p>
+ * An edit replaces only the chunks that it touches, so it costs the size
+ * of a chunk rather than the size of the document, and text appended at
+ * the end becomes a chunk of its own. Finding a line or an offset is a
+ * binary search over the chunks and then over the lines of one chunk. A
+ * line delimiter is never split between two chunks.
+ * </p>
+ */
+class ChunkedContent implements StyledTextContent {
+  static final int CHUNK_SIZE = 64 * 1024;
+  static final int MIN_CHUNK_SIZE = CHUNK_SIZE / 4; // smaller chunks are joined with a neighbor
+  static final int[] NO_LINES = new int[0];
+
+  /**
+   * A part of the text and the offsets at which its lines start, not
+   * counting the line that starts with the chunk.
+   */
+  static class Chunk {
+    final String text;
+    final int[] lineStarts;
+
+    Chunk(final String text) {
+      this.text = text;
+      this.lineStarts = lineStarts(text);
+    }
+  }
+
+  /**
+   * A part of the text that refers to the chunks that held it instead of
+   * copying it. Chunks never change, so it stays valid after edits.
+   */
+  static class Pieces implements CharSequence {
+    final String[] texts;
+    final int[] starts; // start of each piece in its chunk
+    final int[] offsets; // offset of each piece in the sequence, then the length
+
+    Pieces(final String[] texts, final int[] starts, final int[] offsets) {
+      this.texts = texts;
+      this.starts = starts;
+      this.offsets = offsets;
+    }
+
+    @Override
+    public int length() {
+      return this.offsets[this.texts.length];
+    }
+
+    @Override
+    public char charAt(final int index) {
+      int i = Arrays.binarySearch(this.offsets, 0, this.texts.length, index);
+      if (i < 0) {
+        i = -i - 2;
+      }
+      return this.texts[i].charAt((this.starts[i] + index) - this.offsets[i]);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return this.toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder buffer = new StringBuilder(this.length());
+      for (int i = 0; i < this.texts.length; i++) {
+        buffer.append(this.texts[i], this.starts[i],
+            (this.starts[i] + this.offsets[i + 1]) - this.offsets[i]);
+      }
+      return buffer.toString();
+    }
+
+    /**
+     * Returns the number of characters kept from being garbage collected.
+     */
+    int retainedLength() {
+      int length = 0;
+      for (final String text : this.texts) {
+        length += text.length();
+      }
+      return length;
+    }
+  }
+
+  final List<TextChangeListener> listeners = new ArrayList<>();
+  final String lineDelimiter;
+  Chunk[] chunks = new Chunk[16];
+  int[] chunkStarts = new int[16]; // offset of the first character of each chunk
+  int[] chunkLines = new int[16]; // number of line delimiters before each chunk
+  int chunkCount;
+  int charCount;
+  int delimiterCount;
+
+  ChunkedContent(final String lineDelimiter) {
+    this.lineDelimiter = lineDelimiter;
+  }
+
+  @Override
+  public void addTextChangeListener(final TextChangeListener listener) {
+    if (listener == null) {
+      SWT.error(SWT.ERROR_NULL_ARGUMENT);
+    }
+    this.listeners.add(listener);
+  }
+
+  @Override
+  public void removeTextChangeListener(final TextChangeListener listener) {
+    if (listener == null) {
+      SWT.error(SWT.ERROR_NULL_ARGUMENT);
+    }
+    this.listeners.remove(listener);
+  }
+
+  @Override
+  public int getCharCount() {
+    return this.charCount;
+  }
+
+  @Override
+  public int getLineCount() {
+    return this.delimiterCount + 1;
+  }
+
+  @Override
+  public String getLineDelimiter() {
+    return this.lineDelimiter;
+  }
+
+  @Override
+  public String getLine(final int lineIndex) {
+    if ((lineIndex < 0) || (lineIndex > this.delimiterCount)) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    final int start = this.getOffsetAtLine(lineIndex);
+    int end = this.charCount;
+    if (lineIndex < this.delimiterCount) {
+      end = this.getOffsetAtLine(lineIndex + 1) - 1;
+      if ((end > start) && (this.charAt(end) == '\n') && (this.charAt(end - 1) == '\r')) {
+        end--;
+      }
+    }
+    return this.getTextRange(start, end - start);
+  }
+
+  @Override
+  public int getLineAtOffset(final int offset) {
+    if ((offset < 0) || (offset > this.charCount)) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    if (this.chunkCount == 0) {
+      return 0;
+    }
+    final int index = this.chunkAtOffset(offset);
+    final int[] lineStarts = this.chunks[index].lineStarts;
+    int lines = Arrays.binarySearch(lineStarts, offset - this.chunkStarts[index]);
+    lines = lines >= 0 ? lines + 1 : -lines - 1;
+    return this.chunkLines[index] + lines;
+  }
+
+  @Override
+  public int getOffsetAtLine(final int lineIndex) {
+    if (lineIndex == 0) {
+      return 0;
+    }
+    if ((lineIndex < 0) || (lineIndex > this.delimiterCount)) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    // the last chunk with fewer delimiters before it holds the delimiter
+    int low = 0, high = this.chunkCount - 1;
+    while (low < high) {
+      final int mid = (low + high + 1) >>> 1;
+      if (this.chunkLines[mid] < lineIndex) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return this.chunkStarts[low] + this.chunks[low].lineStarts[lineIndex - this.chunkLines[low] - 1];
+  }
+
+  @Override
+  public String getTextRange(final int start, final int length) {
+    if ((start < 0) || (length < 0) || (start > (this.charCount - length))) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    if (length == 0) {
+      return ""; //$NON-NLS-1$
+    }
+    int index = this.chunkAtOffset(start);
+    int offset = start - this.chunkStarts[index];
+    String text = this.chunks[index].text;
+    if ((offset + length) <= text.length()) {
+      return text.substring(offset, offset + length);
+    }
+    final StringBuilder buffer = new StringBuilder(length);
+    while (buffer.length() < length) {
+      final int count = Math.min(text.length() - offset, length - buffer.length());
+      buffer.append(text, offset, offset + count);
+      if (buffer.length() < length) {
+        text = this.chunks[++index].text;
+        offset = 0;
+      }
+    }
+    return buffer.toString();
+  }
+
+  @Override
+  public void replaceTextRange(final int start, final int replaceLength, final String text) {
+    if ((start < 0) || (replaceLength < 0) || (start > (this.charCount - replaceLength))) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    if (text == null) {
+      SWT.error(SWT.ERROR_NULL_ARGUMENT);
+    }
+    final int end = start + replaceLength;
+    if (this.splitsDelimiter(start) || ((replaceLength > 0) && this.splitsDelimiter(end))) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    final TextChangingEvent event = new TextChangingEvent(this);
+    event.start = start;
+    event.newText = text;
+    event.newCharCount = text.length();
+    event.replaceCharCount = replaceLength;
+    event.newLineCount = lineStarts(text).length;
+    event.replaceLineCount = replaceLength == 0 ? 0
+        : this.getLineAtOffset(end) - this.getLineAtOffset(start);
+    for (final TextChangeListener listener : this.listeners.toArray(new TextChangeListener[0])) {
+      listener.textChanging(event);
+    }
+    this.replace(start, replaceLength, text);
+    final TextChangedEvent changed = new TextChangedEvent(this);
+    for (final TextChangeListener listener : this.listeners.toArray(new TextChangeListener[0])) {
+      listener.textChanged(changed);
+    }
+  }
+
+  @Override
+  public void setText(final String text) {
+    if (text == null) {
+      SWT.error(SWT.ERROR_NULL_ARGUMENT);
+    }
+    this.chunkCount = 0;
+    this.charCount = 0;
+    this.delimiterCount = 0;
+    this.insertChunks(0, split(text));
+    final TextChangedEvent event = new TextChangedEvent(this);
+    for (final TextChangeListener listener : this.listeners.toArray(new TextChangeListener[0])) {
+      listener.textSet(event);
+    }
+  }
+
+  /**
+   * Returns a part of the text without copying it.
+   *
+   * @param start the offset of the first character
+   * @param length the number of characters
+   * @return the text, which refers to the chunks that hold it
+   */
+  Pieces getPieces(final int start, final int length) {
+    if ((start < 0) || (length < 0) || (start > (this.charCount - length))) {
+      SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+    }
+    final int first = length == 0 ? 0 : this.chunkAtOffset(start);
+    final int last = length == 0 ? -1 : this.chunkAtOffset((start + length) - 1);
+    final int count = (last - first) + 1;
+    final String[] texts = new String[count];
+    final int[] starts = new int[count];
+    final int[] offsets = new int[count + 1];
+    for (int i = 0; i < count; i++) {
+      final int index = first + i;
+      texts[i] = this.chunks[index].text;
+      starts[i] = Math.max(0, start - this.chunkStarts[index]);
+      final int end = Math.min(texts[i].length(), (start + length) - this.chunkStarts[index]);
+      offsets[i + 1] = (offsets[i] + end) - starts[i];
+    }
+    return new Pieces(texts, starts, offsets);
+  }
+
+  /**
+   * Adds text at the end, as a change that listeners are told about.
+   */
+  void append(final String text) {
+    this.replaceTextRange(this.charCount, 0, text);
+  }
+
+  char charAt(final int offset) {
+    final int index = this.chunkAtOffset(offset);
+    return this.chunks[index].text.charAt(offset - this.chunkStarts[index]);
+  }
+
+  /*
+   * Returns the chunk that holds an offset; the end of the text is held by
+   * the last chunk.
+   */
+  int chunkAtOffset(final int offset) {
+    if (offset >= this.charCount) {
+      return this.chunkCount - 1;
+    }
+    int index = Arrays.binarySearch(this.chunkStarts, 0, this.chunkCount, offset);
+    if (index < 0) {
+      index = -index - 2;
+    }
+    return index;
+  }
+
+  boolean splitsDelimiter(final int offset) {
+    return (offset > 0) && (offset < this.charCount) && (this.charAt(offset - 1) == '\r')
+        && (this.charAt(offset) == '\n');
+  }
+
+  /*
+   * Replaces the chunks touched by an edit with the chunks of the edited
+   * text, taking in neighbors that would otherwise be too small or that
+   * would split a line delimiter.
+   */
+  void replace(final int start, final int replaceLength, final String text) {
+    if ((this.chunkCount == 0) || ((start == this.charCount)
+        && (this.chunks[this.chunkCount - 1].text.length() >= MIN_CHUNK_SIZE)
+        && !(text.startsWith("\n") && this.endsWith(this.chunkCount - 1, '\r')))) { //$NON-NLS-1$
+      // the text is new chunks of its own
+      this.insertChunks(this.chunkCount, split(text));
+      return;
+    }
+    final int end = start + replaceLength;
+    int first = this.chunkAtOffset(start);
+    int last = replaceLength == 0 ? first : this.chunkAtOffset(end - 1);
+    final StringBuilder buffer = new StringBuilder();
+    buffer.append(this.chunks[first].text, 0, start - this.chunkStarts[first]);
+    buffer.append(text);
+    buffer.append(this.chunks[last].text, end - this.chunkStarts[last],
+        this.chunks[last].text.length());
+    if ((first > 0) && ((buffer.length() < MIN_CHUNK_SIZE)
+        || ((buffer.length() > 0) && (buffer.charAt(0) == '\n') && this.endsWith(first - 1, '\r')))) {
+      first--;
+      buffer.insert(0, this.chunks[first].text);
+    }
+    if ((last < (this.chunkCount - 1)) && ((buffer.length() < MIN_CHUNK_SIZE)
+        || ((buffer.length() > 0) && (buffer.charAt(buffer.length() - 1) == '\r')
+            && (this.chunks[last + 1].text.charAt(0) == '\n')))) {
+      last++;
+      buffer.append(this.chunks[last].text);
+    }
+    final int offset = this.chunkStarts[first];
+    final int lines = this.chunkLines[first];
+    final int removed = (last - first) + 1;
+    System.arraycopy(this.chunks, last + 1, this.chunks, first, this.chunkCount - last - 1);
+    this.chunkCount -= removed;
+    this.charCount = offset;
+    this.delimiterCount = lines;
+    for (int i = first; i < this.chunkCount; i++) {
+      this.charCount += this.chunks[i].text.length();
+      this.delimiterCount += this.chunks[i].lineStarts.length;
+    }
+    this.insertChunks(first, split(buffer.toString()));
+  }
+
+  boolean endsWith(final int index, final char c) {
+    final String text = this.chunks[index].text;
+    return text.charAt(text.length() - 1) == c;
+  }
+
+  /*
+   * Inserts chunks and updates the offsets and line numbers of the chunks
+   * that follow.
+   */
+  void insertChunks(final int index, final List<Chunk> newChunks) {
+    final int count = this.chunkCount + newChunks.size();
+    if (count > this.chunks.length) {
+      final int length = Math.max(count, this.chunks.length * 2);
+      this.chunks = Arrays.copyOf(this.chunks, length);
+      this.chunkStarts = Arrays.copyOf(this.chunkStarts, length);
+      this.chunkLines = Arrays.copyOf(this.chunkLines, length);
+    }
+    System.arraycopy(this.chunks, index, this.chunks, index + newChunks.size(),
+        this.chunkCount - index);
+    for (int i = 0; i < newChunks.size(); i++) {
+      final Chunk chunk = newChunks.get(i);
+      this.chunks[index + i] = chunk;
+      this.charCount += chunk.text.length();
+      this.delimiterCount += chunk.lineStarts.length;
+    }
+    this.chunkCount = count;
+    int offset = index == 0 ? 0
+        : this.chunkStarts[index - 1] + this.chunks[index - 1].text.length();
+    int lines = index == 0 ? 0
+        : this.chunkLines[index - 1] + this.chunks[index - 1].lineStarts.length;
+    for (int i = index; i < count; i++) {
+      this.chunkStarts[i] = offset;
+      this.chunkLines[i] = lines;
+      offset += this.chunks[i].text.length();
+      lines += this.chunks[i].lineStarts.length;
+    }
+  }
+
+  /*
+   * Splits text into chunks of at most CHUNK_SIZE characters, moving a
+   * boundary that would split a line delimiter by one character.
+   */
+  static List<Chunk> split(final String text) {
+    final List<Chunk> chunks = new ArrayList<>((text.length() / CHUNK_SIZE) + 1);
+    int start = 0;
+    while (start < text.length()) {
+      int end = Math.min(start + CHUNK_SIZE, text.length());
+      if ((end < text.length()) && (text.charAt(end - 1) == '\r') && (text.charAt(end) == '\n')) {
+        end++;
+      }
+      chunks.add(new Chunk((start == 0) && (end == text.length()) ? text : text.substring(start, end)));
+      start = end;
+    }
+    return chunks;
+  }
+
+  /*
+   * Returns the offsets that follow the line delimiters of a text; "\r\n",
+   * "\r" and "\n" are delimiters.
+   */
+  static int[] lineStarts(final String text) {
+    int[] starts = NO_LINES;
+    int count = 0;
+    final int length = text.length();
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
+      if ((c == '\r') || (c == '\n')) {
+        if ((c == '\r') && ((i + 1) < length) && (text.charAt(i + 1) == '\n')) {
+          i++;
+        }
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, Math.max(16, count * 2));
+        }
+        starts[count++] = i + 1;
+      }
+    }
+    return count == starts.length ? starts : Arrays.copyOf(starts, count);
+  }
+}
@@ -0,0 +1,184 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Reads a file into a ChunkedContent in the background.
+ * <p>
+ * A thread reads the file through a FileChannel and decodes it into
+ * chunks of text. The UI thread appends the chunks to the content for
+ * at most BATCH_TIME milliseconds at a time, so the first screen of the
+ * document shows as soon as its chunk is read, and the editor stays
+ * responsive while the rest arrives. The line offsets of each chunk are
+ * indexed as it is appended.
+ * </p>
+ */
+class ContentLoader implements Runnable {
+  static final int BUFFER_SIZE = 1024 * 1024;
+  static final int BATCH_TIME = 20; // in milliseconds
+
+  final Path path;
+  final Charset charset;
+  final ChunkedContent content;
+  final Display display;
+  final Runnable progress; // called on the UI thread after each batch
+  final Consumer<IOException> done; // called on the UI thread when the file is read, with the error if any
+
+  final Queue<String> chunks = new ConcurrentLinkedQueue<>();
+  final AtomicBoolean scheduled = new AtomicBoolean();
+  volatile long size;
+  volatile long bytesRead;
+  volatile boolean read;
+  volatile boolean cancelled;
+  volatile IOException error;
+  boolean finished; // accessed on the UI thread only
+
+  ContentLoader(final Path path, final Charset charset, final ChunkedContent content,
+      final Display display, final Runnable progress, final Consumer<IOException> done) {
+    this.path = path;
+    this.charset = charset;
+    this.content = content;
+    this.display = display;
+    this.progress = progress;
+    this.done = done;
+  }
+
+  void start() {
+    final Thread thread = new Thread(this, "TextEditor loader"); //$NON-NLS-1$
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops reading. Chunks that were not appended yet are dropped, and
+   * the done callback is not called.
+   */
+  void cancel() {
+    this.cancelled = true;
+    this.chunks.clear();
+  }
+
+  /**
+   * Returns how much of the file was read, in percent.
+   */
+  int getProgress() {
+    final long size = this.size;
+    return size == 0 ? 100 : (int) ((this.bytesRead * 100) / size);
+  }
+
+  @Override
+  public void run() {
+    try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+      this.size = channel.size();
+      final CharsetDecoder decoder = this.charset.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      final CharBuffer chars = CharBuffer.allocate(ChunkedContent.CHUNK_SIZE);
+      boolean eof = false;
+      while (!eof && !this.cancelled) {
+        final int count = channel.read(bytes);
+        eof = count < 0;
+        if (count > 0) {
+          this.bytesRead += count;
+        }
+        bytes.flip();
+        while (!this.cancelled && decoder.decode(bytes, chars, eof).isOverflow()) {
+          this.emit(chars, false);
+        }
+        bytes.compact();
+      }
+      while (!this.cancelled && decoder.flush(chars).isOverflow()) {
+        this.emit(chars, false);
+      }
+      this.emit(chars, true);
+    } catch (final IOException e) {
+      this.error = e;
+    } finally {
+      this.read = true;
+      this.schedule();
+    }
+  }
+
+  /*
+   * Queues the decoded characters as a chunk. A '\r' at the end of a chunk
+   * is kept for the next one, so that "\r\n" is not split.
+   */
+  void emit(final CharBuffer chars, final boolean last) {
+    chars.flip();
+    int length = chars.remaining();
+    final boolean keep = !last && (length > 0) && (chars.get(length - 1) == '\r');
+    if (keep) {
+      length--;
+    }
+    if (length > 0) {
+      this.chunks.add(new String(chars.array(), chars.arrayOffset() + chars.position(), length));
+      this.schedule();
+    }
+    chars.clear();
+    if (keep) {
+      chars.put('\r');
+    }
+  }
+
+  void schedule() {
+    if (!this.cancelled && !this.display.isDisposed() && this.scheduled.compareAndSet(false, true)) {
+      this.display.asyncExec(this::append);
+    }
+  }
+
+  /*
+   * Appends queued chunks on the UI thread.
+   */
+  void append() {
+    this.scheduled.set(false);
+    if (this.cancelled || this.finished) {
+      return;
+    }
+    // read before the queue is drained: once it is true, no chunk is added any more
+    final boolean read = this.read;
+    final long deadline = System.currentTimeMillis() + BATCH_TIME;
+    String chunk;
+    while ((chunk = this.chunks.poll()) != null) {
+      this.content.append(chunk);
+      if (System.currentTimeMillis() > deadline) {
+        break;
+      }
+    }
+    if (!this.chunks.isEmpty()) {
+      this.schedule();
+    } else if (read) {
+      this.finished = true;
+      this.done.accept(this.error);
+      return;
+    }
+    this.progress.run();
+  }
+}
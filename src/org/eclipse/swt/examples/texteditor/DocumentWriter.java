@@ -0,0 +1,490 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.FontData;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Writes the text and the styles of a StyledText as a styled document.
+ * <p>
+ * The document is written in two passes over the text, BLOCK_SIZE
+ * characters at a time. The first pass collects the distinct styles, so
+ * that the colors and fonts can be written once at the start of the
+ * document; the second writes the text line by line, with the style runs
+ * of each line. Only the distinct styles are kept, so the memory used
+ * does not grow with the size of the document. Images and controls are
+ * left out.
+ * </p>
+ */
+abstract class DocumentWriter {
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  final StyledText styledText;
+  final StyledTextContent content;
+  final Writer out;
+  final Map<StyleRange, String> codes = new IdentityHashMap<>(); // by distinct style
+
+  DocumentWriter(final StyledText styledText, final Writer out) {
+    this.styledText = styledText;
+    this.content = styledText.getContent();
+    this.out = out;
+  }
+
+  /**
+   * Writes the document. The writer is flushed but not closed.
+   */
+  void write() throws IOException {
+    final int charCount = this.content.getCharCount();
+    for (int start = 0; start < charCount; start += BLOCK_SIZE) {
+      final int length = Math.min(BLOCK_SIZE, charCount - start);
+      // runs with the same style share the StyleRange
+      for (final StyleRange style : this.styledText.getStyleRanges(start, length, false)) {
+        if (!this.codes.containsKey(style)) {
+          this.codes.put(style, null);
+          this.addStyle(style);
+        }
+      }
+    }
+    this.writeHeader();
+    final int lineCount = this.content.getLineCount();
+    for (int line = 0; line < lineCount; line++) {
+      int start = this.content.getOffsetAtLine(line);
+      final int end = this.getLineEnd(line);
+      while (start < end) {
+        int blockEnd = Math.min(start + BLOCK_SIZE, end);
+        if ((blockEnd < end)
+            && Character.isHighSurrogate(this.content.getTextRange(blockEnd - 1, 1).charAt(0))) {
+          blockEnd--;
+        }
+        this.writeBlock(start, blockEnd);
+        start = blockEnd;
+      }
+      if (line < (lineCount - 1)) {
+        this.writeLineBreak();
+      }
+    }
+    this.writeFooter();
+    this.out.flush();
+  }
+
+  /*
+   * Returns the end of the text of a line, before its delimiter.
+   */
+  int getLineEnd(final int line) {
+    if (line == (this.content.getLineCount() - 1)) {
+      return this.content.getCharCount();
+    }
+    int end = this.content.getOffsetAtLine(line + 1) - 1; // the '\n' or a lone '\r'
+    if ((end > 0) && this.content.getTextRange(end - 1, 2).equals("\r\n")) { //$NON-NLS-1$
+      end--;
+    }
+    return end;
+  }
+
+  void writeBlock(final int start, final int end) throws IOException {
+    final String text = this.content.getTextRange(start, end - start);
+    final int[] ranges = this.styledText.getRanges(start, end - start);
+    final StyleRange[] styles = this.styledText.getStyleRanges(start, end - start, false);
+    int offset = start;
+    for (int i = 0; i < styles.length; i++) {
+      final int rangeStart = ranges[i * 2];
+      final int rangeEnd = rangeStart + ranges[(i * 2) + 1];
+      if (rangeStart > offset) {
+        this.writeText(text, offset - start, rangeStart - start, null);
+      }
+      final StyleRange style = styles[i];
+      if (style.metrics == null) { // not an image or a control
+        this.writeText(text, rangeStart - start, rangeEnd - start, style);
+      }
+      offset = rangeEnd;
+    }
+    if (offset < end) {
+      this.writeText(text, offset - start, end - start, null);
+    }
+  }
+
+  /**
+   * Returns the code that starts a style in the document, computed once
+   * for each distinct style.
+   */
+  String getCode(final StyleRange style) {
+    String code = this.codes.get(style);
+    if (code == null) {
+      code = this.createCode(style);
+      this.codes.put(style, code);
+    }
+    return code;
+  }
+
+  static FontData getFontData(final StyleRange style) {
+    return style.font != null ? style.font.getFontData()[0] : null;
+  }
+
+  static int getFontStyle(final StyleRange style) {
+    final FontData fontData = getFontData(style);
+    return fontData != null ? fontData.getStyle() : style.fontStyle;
+  }
+
+  /**
+   * Notes a distinct style of the document, before the header is written.
+   */
+  abstract void addStyle(StyleRange style);
+
+  abstract String createCode(StyleRange style);
+
+  abstract void writeHeader() throws IOException;
+
+  /**
+   * Writes some text of a line, with a style or unstyled if the style is
+   * null.
+   */
+  abstract void writeText(String text, int start, int end, StyleRange style) throws IOException;
+
+  abstract void writeLineBreak() throws IOException;
+
+  abstract void writeFooter() throws IOException;
+
+  /**
+   * Writes a document in the Rich Text Format. Characters that are not
+   * ASCII are written as Unicode escapes, so the output is ASCII.
+   */
+  static class RTF extends DocumentWriter {
+    final Map<String, Integer> fonts = new LinkedHashMap<>(); // by name
+    final Map<RGB, Integer> colors = new LinkedHashMap<>();
+
+    RTF(final StyledText styledText, final Writer out) {
+      super(styledText, out);
+      this.fonts.put(styledText.getFont().getFontData()[0].getName(), Integer.valueOf(0));
+    }
+
+    @Override
+    void addStyle(final StyleRange style) {
+      final FontData fontData = getFontData(style);
+      if ((fontData != null) && !this.fonts.containsKey(fontData.getName())) {
+        this.fonts.put(fontData.getName(), Integer.valueOf(this.fonts.size()));
+      }
+      this.addColor(style.foreground);
+      this.addColor(style.background);
+      this.addColor(style.underlineColor);
+      this.addColor(style.borderColor);
+    }
+
+    void addColor(final Color color) {
+      if (color != null) {
+        final RGB rgb = color.getRGB();
+        if (!this.colors.containsKey(rgb)) {
+          // index 0 is the default color
+          this.colors.put(rgb, Integer.valueOf(this.colors.size() + 1));
+        }
+      }
+    }
+
+    int getColor(final Color color) {
+      return this.colors.get(color.getRGB()).intValue();
+    }
+
+    @Override
+    String createCode(final StyleRange style) {
+      final StringBuilder code = new StringBuilder();
+      final FontData fontData = getFontData(style);
+      if (fontData != null) {
+        code.append("\\f").append(this.fonts.get(fontData.getName())); //$NON-NLS-1$
+        code.append("\\fs").append(fontData.getHeight() * 2); //$NON-NLS-1$
+      }
+      final int fontStyle = getFontStyle(style);
+      if ((fontStyle & SWT.BOLD) != 0) {
+        code.append("\\b"); //$NON-NLS-1$
+      }
+      if ((fontStyle & SWT.ITALIC) != 0) {
+        code.append("\\i"); //$NON-NLS-1$
+      }
+      if (style.foreground != null) {
+        code.append("\\cf").append(this.getColor(style.foreground)); //$NON-NLS-1$
+      }
+      if (style.background != null) {
+        code.append("\\highlight").append(this.getColor(style.background)); //$NON-NLS-1$
+      }
+      if (style.underline) {
+        switch (style.underlineStyle) {
+        case SWT.UNDERLINE_DOUBLE:
+          code.append("\\uldb"); //$NON-NLS-1$
+          break;
+        case SWT.UNDERLINE_SQUIGGLE:
+        case SWT.UNDERLINE_ERROR:
+          code.append("\\ulwave"); //$NON-NLS-1$
+          break;
+        default:
+          code.append("\\ul"); //$NON-NLS-1$
+        }
+        if (style.underlineColor != null) {
+          code.append("\\ulc").append(this.getColor(style.underlineColor)); //$NON-NLS-1$
+        }
+      }
+      if (style.strikeout) {
+        code.append("\\strike"); //$NON-NLS-1$
+      }
+      if (style.rise > 0) {
+        code.append("\\up").append(style.rise * 2); //$NON-NLS-1$
+      } else if (style.rise < 0) {
+        code.append("\\dn").append(-style.rise * 2); //$NON-NLS-1$
+      }
+      if (style.borderStyle != SWT.NONE) {
+        code.append("\\chbrdr"); //$NON-NLS-1$
+        switch (style.borderStyle) {
+        case SWT.BORDER_DASH:
+          code.append("\\brdrdash"); //$NON-NLS-1$
+          break;
+        case SWT.BORDER_DOT:
+          code.append("\\brdrdot"); //$NON-NLS-1$
+          break;
+        default:
+          code.append("\\brdrs"); //$NON-NLS-1$
+        }
+        if (style.borderColor != null) {
+          code.append("\\brdrcf").append(this.getColor(style.borderColor)); //$NON-NLS-1$
+        }
+      }
+      return code.toString();
+    }
+
+    @Override
+    void writeHeader() throws IOException {
+      this.out.write("{\\rtf1\\ansi\\uc1\\deff0{\\fonttbl"); //$NON-NLS-1$
+      for (final Map.Entry<String, Integer> font : this.fonts.entrySet()) {
+        this.out.write("{\\f" + font.getValue() + "\\fnil "); //$NON-NLS-1$ //$NON-NLS-2$
+        this.writeEscaped(font.getKey(), 0, font.getKey().length());
+        this.out.write(";}"); //$NON-NLS-1$
+      }
+      this.out.write("}{\\colortbl;"); //$NON-NLS-1$
+      for (final RGB rgb : this.colors.keySet()) {
+        this.out.write("\\red" + rgb.red + "\\green" + rgb.green + "\\blue" + rgb.blue + ";"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+      }
+      final FontData fontData = this.styledText.getFont().getFontData()[0];
+      this.out.write("}\n\\f0\\fs" + (fontData.getHeight() * 2) + " "); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Override
+    void writeText(final String text, final int start, final int end, final StyleRange style)
+        throws IOException {
+      if (style == null) {
+        this.writeEscaped(text, start, end);
+        return;
+      }
+      this.out.write('{');
+      this.out.write(this.getCode(style));
+      this.out.write(' ');
+      this.writeEscaped(text, start, end);
+      this.out.write('}');
+    }
+
+    void writeEscaped(final String text, final int start, final int end) throws IOException {
+      for (int i = start; i < end; i++) {
+        final char c = text.charAt(i);
+        switch (c) {
+        case '\\':
+        case '{':
+        case '}':
+          this.out.write('\\');
+          this.out.write(c);
+          break;
+        case '\t':
+          this.out.write("\\tab "); //$NON-NLS-1$
+          break;
+        default:
+          if (c > 0x7F) {
+            // a signed 16 bit value, with '?' for readers without Unicode
+            this.out.write("\\u" + (short) c + "?"); //$NON-NLS-1$ //$NON-NLS-2$
+          } else if (c >= ' ') {
+            this.out.write(c);
+          }
+        }
+      }
+    }
+
+    @Override
+    void writeLineBreak() throws IOException {
+      this.out.write("\\par\n"); //$NON-NLS-1$
+    }
+
+    @Override
+    void writeFooter() throws IOException {
+      this.out.write("}\n"); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Writes an HTML document. Each distinct style becomes a CSS class, and
+   * styles with the same properties share their class.
+   */
+  static class HTML extends DocumentWriter {
+    final Map<String, String> classes = new LinkedHashMap<>(); // by declarations
+
+    HTML(final StyledText styledText, final Writer out) {
+      super(styledText, out);
+    }
+
+    @Override
+    void addStyle(final StyleRange style) {
+      final String declarations = getDeclarations(style);
+      String name = this.classes.get(declarations);
+      if (name == null) {
+        name = "s" + this.classes.size(); //$NON-NLS-1$
+        this.classes.put(declarations, name);
+      }
+    }
+
+    static String getDeclarations(final StyleRange style) {
+      final StringBuilder css = new StringBuilder();
+      final FontData fontData = getFontData(style);
+      if (fontData != null) {
+        css.append("font-family: '").append(fontData.getName()).append("'; "); //$NON-NLS-1$ //$NON-NLS-2$
+        css.append("font-size: ").append(fontData.getHeight()).append("pt; "); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      final int fontStyle = getFontStyle(style);
+      if ((fontStyle & SWT.BOLD) != 0) {
+        css.append("font-weight: bold; "); //$NON-NLS-1$
+      }
+      if ((fontStyle & SWT.ITALIC) != 0) {
+        css.append("font-style: italic; "); //$NON-NLS-1$
+      }
+      if (style.foreground != null) {
+        css.append("color: ").append(toCSS(style.foreground)).append("; "); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      if (style.background != null) {
+        css.append("background-color: ").append(toCSS(style.background)).append("; "); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      if (style.underline || style.strikeout) {
+        css.append("text-decoration: ") //$NON-NLS-1$
+            .append(style.underline ? "underline" : "") //$NON-NLS-1$ //$NON-NLS-2$
+            .append(style.underline && style.strikeout ? " " : "") //$NON-NLS-1$ //$NON-NLS-2$
+            .append(style.strikeout ? "line-through" : "").append("; "); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        if (style.underline && (style.underlineStyle == SWT.UNDERLINE_DOUBLE)) {
+          css.append("text-decoration-style: double; "); //$NON-NLS-1$
+        } else if (style.underline && ((style.underlineStyle == SWT.UNDERLINE_SQUIGGLE)
+            || (style.underlineStyle == SWT.UNDERLINE_ERROR))) {
+          css.append("text-decoration-style: wavy; "); //$NON-NLS-1$
+        }
+        final Color color = style.underline ? style.underlineColor : style.strikeoutColor;
+        if (color != null) {
+          css.append("text-decoration-color: ").append(toCSS(color)).append("; "); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+      }
+      if (style.rise != 0) {
+        css.append("vertical-align: ").append(style.rise).append("px; "); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      if (style.borderStyle != SWT.NONE) {
+        css.append("border: 1px ") //$NON-NLS-1$
+            .append(style.borderStyle == SWT.BORDER_DASH ? "dashed" //$NON-NLS-1$
+                : style.borderStyle == SWT.BORDER_DOT ? "dotted" : "solid"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (style.borderColor != null) {
+          css.append(' ').append(toCSS(style.borderColor));
+        }
+        css.append("; "); //$NON-NLS-1$
+      }
+      return css.toString().trim();
+    }
+
+    static String toCSS(final Color color) {
+      return String.format("#%02x%02x%02x", Integer.valueOf(color.getRed()), //$NON-NLS-1$
+          Integer.valueOf(color.getGreen()), Integer.valueOf(color.getBlue()));
+    }
+
+    @Override
+    String createCode(final StyleRange style) {
+      return this.classes.get(getDeclarations(style));
+    }
+
+    @Override
+    void writeHeader() throws IOException {
+      final FontData fontData = this.styledText.getFont().getFontData()[0];
+      this.out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<style>\n"); //$NON-NLS-1$
+      this.out.write("pre { font-family: '" + fontData.getName() + "'; font-size: " //$NON-NLS-1$ //$NON-NLS-2$
+          + fontData.getHeight() + "pt; }\n"); //$NON-NLS-1$
+      for (final Map.Entry<String, String> entry : this.classes.entrySet()) {
+        this.out.write("." + entry.getValue() + " { " + entry.getKey() + " }\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      }
+      this.out.write("</style>\n</head>\n<body>\n<pre>"); //$NON-NLS-1$
+    }
+
+    @Override
+    void writeText(final String text, final int start, final int end, final StyleRange style)
+        throws IOException {
+      if (style == null) {
+        this.writeEscaped(text, start, end);
+        return;
+      }
+      final boolean link = style.underline && (style.underlineStyle == SWT.UNDERLINE_LINK)
+          && (style.data instanceof String);
+      if (link) {
+        this.out.write("<a href=\""); //$NON-NLS-1$
+        this.writeEscaped((String) style.data, 0, ((String) style.data).length());
+        this.out.write("\" "); //$NON-NLS-1$
+      } else {
+        this.out.write("<span "); //$NON-NLS-1$
+      }
+      this.out.write("class=\"" + this.getCode(style) + "\">"); //$NON-NLS-1$ //$NON-NLS-2$
+      this.writeEscaped(text, start, end);
+      this.out.write(link ? "</a>" : "</span>"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    void writeEscaped(final String text, final int start, final int end) throws IOException {
+      int written = start;
+      for (int i = start; i < end; i++) {
+        final String entity;
+        switch (text.charAt(i)) {
+        case '&':
+          entity = "&amp;"; //$NON-NLS-1$
+          break;
+        case '<':
+          entity = "&lt;"; //$NON-NLS-1$
+          break;
+        case '>':
+          entity = "&gt;"; //$NON-NLS-1$
+          break;
+        case '"':
+          entity = "&quot;"; //$NON-NLS-1$
+          break;
+        default:
+          continue;
+        }
+        this.out.write(text, written, i - written);
+        this.out.write(entity);
+        written = i + 1;
+      }
+      this.out.write(text, written, end - written);
+    }
+
+    @Override
+    void writeLineBreak() throws IOException {
+      this.out.write('\n');
+    }
+
+    @Override
+    void writeFooter() throws IOException {
+      this.out.write("</pre>\n</body>\n</html>\n"); //$NON-NLS-1$
+    }
+  }
+}
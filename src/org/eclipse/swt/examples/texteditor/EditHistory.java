@@ -0,0 +1,342 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Control;
+
+/**
+ * The undo and redo history of the editor.
+ * <p>
+ * Every edit is kept as the text and the style runs that it replaced and
+ * the ones that replaced them, limited to the range of the edit. Large
+ * removed texts refer to the immutable chunks of the content instead of
+ * being copied, and style runs share the StyleRange objects of the
+ * document, so undoing a style change over many runs applies the runs
+ * that were saved without copying the styles of the whole document.
+ * Typing, backspacing and deleting one character at a time within
+ * COALESCE_TIME milliseconds are merged into one edit.
+ * </p><p>
+ * The history uses at most about the number of bytes given by the system
+ * property org.eclipse.swt.examples.texteditor.undoLimit, 64 MB by
+ * default; the oldest edits are forgotten first.
+ * </p><p>
+ * Images and controls in the text are not restored.
+ * </p>
+ */
+class EditHistory {
+  static final int COALESCE_TIME = 1000; // in milliseconds
+  static final long DEFAULT_LIMIT = 64L * 1024 * 1024;
+  static final int[] NO_RANGES = new int[0];
+  static final StyleRange[] NO_STYLES = new StyleRange[0];
+
+  /**
+   * One edit. Ranges are offsets in the document at the time of the edit,
+   * which are the offsets at which they are applied again.
+   */
+  static class Edit {
+    int start;
+    CharSequence oldText, newText; // null if only the styles changed
+    int oldLength, newLength;
+    int[] oldRanges, newRanges;
+    StyleRange[] oldStyles, newStyles;
+    boolean typing; // true for characters typed, backspaced or deleted one at a time
+    long time;
+    long size; // an estimate of the memory used, in bytes
+
+    void computeSize() {
+      this.size = 64 + (4L * (this.oldRanges.length + this.newRanges.length))
+          + (8L * (this.oldStyles.length + this.newStyles.length));
+      if (this.oldText != null) {
+        this.size += 2L * (length(this.oldText) + length(this.newText));
+      }
+    }
+
+    static int length(final CharSequence text) {
+      return text instanceof ChunkedContent.Pieces
+          ? ((ChunkedContent.Pieces) text).retainedLength()
+          : text.length();
+    }
+  }
+
+  final StyledText styledText;
+  final ChunkedContent content;
+  final ResourcePool pool;
+  final long limit;
+  final Deque<Edit> undoStack = new ArrayDeque<>();
+  final Deque<Edit> redoStack = new ArrayDeque<>();
+  long size;
+  Edit pending; // a text change that was verified but not made yet
+  boolean applying; // true while an edit is undone or redone
+
+  EditHistory(final StyledText styledText, final ChunkedContent content, final ResourcePool pool) {
+    this.styledText = styledText;
+    this.content = content;
+    this.pool = pool;
+    this.limit = Long.getLong("org.eclipse.swt.examples.texteditor.undoLimit", DEFAULT_LIMIT); //$NON-NLS-1$
+  }
+
+  /**
+   * Forgets all edits, for example when a new document is opened.
+   */
+  void clear() {
+    for (final Edit edit : this.undoStack) {
+      this.release(edit);
+    }
+    for (final Edit edit : this.redoStack) {
+      this.release(edit);
+    }
+    this.undoStack.clear();
+    this.redoStack.clear();
+    this.size = 0;
+    this.pending = null;
+  }
+
+  /**
+   * Notes the text and the styles that a text change is about to replace.
+   * Called when the change is verified.
+   */
+  void textChanging(final int start, final int length, final String text) {
+    if (this.applying) {
+      return;
+    }
+    final Edit edit = new Edit();
+    edit.start = start;
+    edit.oldLength = length;
+    edit.oldText = length >= ChunkedContent.CHUNK_SIZE ? this.content.getPieces(start, length)
+        : this.content.getTextRange(start, length);
+    edit.newText = text;
+    edit.newLength = text.length();
+    edit.oldRanges = this.styledText.getRanges(start, length);
+    edit.oldStyles = this.styledText.getStyleRanges(start, length, false);
+    edit.typing = (length <= 1) && (text.length() <= 1) && (text.indexOf('\r') < 0)
+        && (text.indexOf('\n') < 0);
+    this.pending = edit;
+  }
+
+  /**
+   * Records a text change once it is made and its text is styled.
+   */
+  void textChanged() {
+    final Edit edit = this.pending;
+    this.pending = null;
+    if (this.applying || (edit == null)) {
+      return;
+    }
+    edit.newRanges = this.styledText.getRanges(edit.start, edit.newLength);
+    edit.newStyles = this.styledText.getStyleRanges(edit.start, edit.newLength, false);
+    removeObjects(edit);
+    edit.time = System.currentTimeMillis();
+    final Edit previous = this.undoStack.peekLast();
+    if ((previous != null) && this.coalesce(previous, edit)) {
+      return;
+    }
+    this.push(edit);
+  }
+
+  /**
+   * Records a change of the styles of a range.
+   */
+  void styleChanged(final int start, final int length, final int[] oldRanges,
+      final StyleRange[] oldStyles, final int[] newRanges, final StyleRange[] newStyles) {
+    if (this.applying) {
+      return;
+    }
+    final Edit edit = new Edit();
+    edit.start = start;
+    edit.oldLength = edit.newLength = length;
+    edit.oldRanges = oldRanges;
+    edit.oldStyles = oldStyles;
+    edit.newRanges = newRanges;
+    edit.newStyles = newStyles;
+    removeObjects(edit);
+    edit.time = System.currentTimeMillis();
+    this.push(edit);
+  }
+
+  void push(final Edit edit) {
+    for (final Edit redo : this.redoStack) {
+      this.release(redo);
+    }
+    this.redoStack.clear();
+    this.pool.hold(edit.oldStyles);
+    this.pool.hold(edit.newStyles);
+    edit.computeSize();
+    this.size += edit.size;
+    this.undoStack.addLast(edit);
+    this.trim();
+  }
+
+  /*
+   * Forgets the oldest edits until the history fits its limit.
+   */
+  void trim() {
+    while ((this.size > this.limit) && !this.undoStack.isEmpty()) {
+      this.release(this.undoStack.removeFirst());
+    }
+  }
+
+  void release(final Edit edit) {
+    this.pool.release(edit.oldStyles);
+    this.pool.release(edit.newStyles);
+    this.size -= edit.size;
+  }
+
+  /*
+   * Merges a typed, backspaced or deleted character into the previous edit
+   * of the same kind. Returns false if they cannot be merged.
+   */
+  boolean coalesce(final Edit previous, final Edit edit) {
+    if (!previous.typing || !edit.typing || ((edit.time - previous.time) > COALESCE_TIME)
+        || !this.redoStack.isEmpty()) {
+      return false;
+    }
+    final int[] oldRanges, newRanges;
+    final StyleRange[] oldStyles, newStyles;
+    final StringBuilder oldText = new StringBuilder(previous.oldText);
+    final StringBuilder newText = new StringBuilder(previous.newText);
+    if (edit.start == (previous.start + previous.newLength)) {
+      // typing forward, inserting, overwriting or deleting
+      oldText.append(edit.oldText);
+      newText.append(edit.newText);
+      oldRanges = concat(previous.oldRanges, edit.oldRanges,
+          previous.oldLength - previous.newLength);
+      oldStyles = concat(previous.oldStyles, edit.oldStyles);
+      newRanges = this.styledText.getRanges(previous.start, newText.length());
+      newStyles = this.styledText.getStyleRanges(previous.start, newText.length(), false);
+    } else if ((edit.newLength == 0) && (previous.newLength == 0)
+        && ((edit.start + edit.oldLength) == previous.start)) {
+      // backspace
+      oldText.insert(0, edit.oldText);
+      oldRanges = concat(edit.oldRanges, previous.oldRanges, 0);
+      oldStyles = concat(edit.oldStyles, previous.oldStyles);
+      newRanges = NO_RANGES;
+      newStyles = NO_STYLES;
+      previous.start = edit.start;
+    } else {
+      return false;
+    }
+    this.release(previous);
+    previous.oldText = oldText;
+    previous.newText = newText;
+    previous.oldLength = oldText.length();
+    previous.newLength = newText.length();
+    previous.oldRanges = oldRanges;
+    previous.oldStyles = oldStyles;
+    previous.newRanges = newRanges;
+    previous.newStyles = newStyles;
+    previous.time = edit.time;
+    this.pool.hold(previous.oldStyles);
+    this.pool.hold(previous.newStyles);
+    previous.computeSize();
+    this.size += previous.size;
+    return true;
+  }
+
+  static int[] concat(final int[] first, final int[] second, final int shift) {
+    final int[] ranges = new int[first.length + second.length];
+    System.arraycopy(first, 0, ranges, 0, first.length);
+    for (int i = 0; i < second.length; i += 2) {
+      ranges[first.length + i] = second[i] + shift;
+      ranges[first.length + i + 1] = second[i + 1];
+    }
+    return ranges;
+  }
+
+  static StyleRange[] concat(final StyleRange[] first, final StyleRange[] second) {
+    final StyleRange[] styles = new StyleRange[first.length + second.length];
+    System.arraycopy(first, 0, styles, 0, first.length);
+    System.arraycopy(second, 0, styles, first.length, second.length);
+    return styles;
+  }
+
+  /*
+   * Drops the runs of images and controls, which are disposed of when they
+   * are removed from the text.
+   */
+  static void removeObjects(final Edit edit) {
+    int count = withoutObjects(edit.oldRanges, edit.oldStyles);
+    if (count < edit.oldStyles.length) {
+      edit.oldRanges = Arrays.copyOf(edit.oldRanges, count * 2);
+      edit.oldStyles = Arrays.copyOf(edit.oldStyles, count);
+    }
+    count = withoutObjects(edit.newRanges, edit.newStyles);
+    if (count < edit.newStyles.length) {
+      edit.newRanges = Arrays.copyOf(edit.newRanges, count * 2);
+      edit.newStyles = Arrays.copyOf(edit.newStyles, count);
+    }
+  }
+
+  /*
+   * Moves the runs that are not images or controls to the front, and
+   * returns their number. The arrays are changed only if there are such
+   * runs, and are then the editor's own copies.
+   */
+  static int withoutObjects(final int[] ranges, final StyleRange[] styles) {
+    int count = 0;
+    for (int i = 0; i < styles.length; i++) {
+      if (!(styles[i].data instanceof Image) && !(styles[i].data instanceof Control)) {
+        if (count < i) {
+          ranges[count * 2] = ranges[i * 2];
+          ranges[(count * 2) + 1] = ranges[(i * 2) + 1];
+          styles[count] = styles[i];
+        }
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Undoes the last edit. Does nothing if there is none.
+   */
+  void undo() {
+    final Edit edit = this.undoStack.pollLast();
+    if (edit != null) {
+      this.apply(edit, edit.newLength, edit.oldText, edit.oldLength, edit.oldRanges, edit.oldStyles);
+      this.redoStack.addLast(edit);
+    }
+  }
+
+  /**
+   * Redoes the last edit that was undone. Does nothing if there is none.
+   */
+  void redo() {
+    final Edit edit = this.redoStack.pollLast();
+    if (edit != null) {
+      this.apply(edit, edit.oldLength, edit.newText, edit.newLength, edit.newRanges, edit.newStyles);
+      this.undoStack.addLast(edit);
+    }
+  }
+
+  void apply(final Edit edit, final int replaceLength, final CharSequence text, final int length,
+      final int[] ranges, final StyleRange[] styles) {
+    this.applying = true;
+    try {
+      if (edit.oldText != null) {
+        this.styledText.replaceTextRange(edit.start, replaceLength, text.toString());
+      }
+      this.styledText.setStyleRanges(edit.start, length, ranges, styles);
+      this.styledText.setSelection(edit.start, edit.start + length);
+    } finally {
+      this.applying = false;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Device;
+import org.eclipse.swt.graphics.Font;
+import org.eclipse.swt.graphics.FontData;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.graphics.Resource;
+
+/**
+ * The colors and fonts used by the styles of the editor, one for each
+ * distinct RGB value and font description.
+ * <p>
+ * The editor holds a reference to the resources that it applies to new
+ * text, such as the current font and colors, and releases it when they
+ * change. The styles of the document refer to resources as well, but
+ * StyledText splits, joins and drops runs without telling, so these
+ * references are counted when a resource may have become unused: when
+ * its last reference from the editor is released, or when a style that
+ * uses it is replaced. The next call to collect then looks at the styles
+ * of the document once, and disposes of the resources that nothing uses.
+ * </p>
+ */
+class ResourcePool implements StyleFile.Resources {
+  /**
+   * A pooled resource and the number of references held by the editor.
+   */
+  static class Entry {
+    final Object key;
+    final Resource resource;
+    int references;
+
+    Entry(final Object key, final Resource resource) {
+      this.key = key;
+      this.resource = resource;
+    }
+  }
+
+  final Device device;
+  final Map<Object, Entry> entries = new HashMap<>(); // by RGB or list of FontData
+  final Map<Resource, Entry> resources = new IdentityHashMap<>();
+  final Set<Entry> unused = Collections.newSetFromMap(new IdentityHashMap<>()); // to be checked by collect
+
+  ResourcePool(final Device device) {
+    this.device = device;
+  }
+
+  /**
+   * Returns the color of an RGB value, creating it if needed.
+   */
+  @Override
+  public Color getColor(final RGB rgb) {
+    Entry entry = this.entries.get(rgb);
+    if (entry == null) {
+      entry = this.add(rgb, new Color(rgb));
+    }
+    return (Color) entry.resource;
+  }
+
+  /**
+   * Returns the font of a font description, creating it if needed.
+   */
+  @Override
+  public Font getFont(final FontData[] fontData) {
+    final List<FontData> key = Arrays.asList(fontData.clone());
+    Entry entry = this.entries.get(key);
+    if (entry == null) {
+      entry = this.add(key, new Font(this.device, fontData));
+    }
+    return (Font) entry.resource;
+  }
+
+  Font getFont(final String name, final int height, final int style) {
+    return this.getFont(new FontData[] { new FontData(name, height, style) });
+  }
+
+  Entry add(final Object key, final Resource resource) {
+    final Entry entry = new Entry(key, resource);
+    this.entries.put(key, entry);
+    this.resources.put(resource, entry);
+    // until a style or the editor uses it
+    this.unused.add(entry);
+    return entry;
+  }
+
+  /**
+   * Replaces a resource held by the editor with another one.
+   *
+   * @param oldResource the resource that was held, or null
+   * @param newResource the resource to hold, or null
+   * @return the new resource
+   */
+  <T extends Resource> T replace(final Resource oldResource, final T newResource) {
+    if (oldResource != newResource) {
+      final Entry newEntry = this.resources.get(newResource);
+      if (newEntry != null) {
+        newEntry.references++;
+      }
+      final Entry oldEntry = this.resources.get(oldResource);
+      if ((oldEntry != null) && (--oldEntry.references == 0)) {
+        this.unused.add(oldEntry);
+      }
+    }
+    return newResource;
+  }
+
+  /**
+   * Holds a reference to each resource used by some styles that are kept
+   * outside of the document, such as in the undo history.
+   */
+  void hold(final StyleRange[] styles) {
+    for (final Resource resource : resources(styles)) {
+      this.replace(null, resource);
+    }
+  }
+
+  /**
+   * Releases the references taken by hold.
+   */
+  void release(final StyleRange[] styles) {
+    for (final Resource resource : resources(styles)) {
+      this.replace(resource, null);
+    }
+  }
+
+  static Set<Resource> resources(final StyleRange[] styles) {
+    final Set<Resource> resources = Collections.newSetFromMap(new IdentityHashMap<>());
+    StyleRange previous = null;
+    for (final StyleRange style : styles) {
+      // runs with the same style share the StyleRange
+      if (style != previous) {
+        resources.add(style.font);
+        resources.add(style.foreground);
+        resources.add(style.background);
+        resources.add(style.underlineColor);
+        resources.add(style.strikeoutColor);
+        resources.add(style.borderColor);
+        previous = style;
+      }
+    }
+    resources.remove(null);
+    return resources;
+  }
+
+  /**
+   * Notes that some styles were removed from the document, so the
+   * resources they use may have become unused.
+   */
+  void discard(final StyleRange[] styles) {
+    if (styles == null) {
+      return;
+    }
+    for (final StyleRange style : styles) {
+      this.discard(style.font);
+      this.discard(style.foreground);
+      this.discard(style.background);
+      this.discard(style.underlineColor);
+      this.discard(style.strikeoutColor);
+      this.discard(style.borderColor);
+    }
+  }
+
+  void discard(final Resource resource) {
+    if (resource != null) {
+      final Entry entry = this.resources.get(resource);
+      if (entry != null) {
+        this.unused.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Disposes of the resources that may have become unused and that
+   * neither the editor nor the styles of the document use.
+   */
+  void collect(final StyledText styledText) {
+    this.unused.removeIf(entry -> entry.references > 0);
+    if (this.unused.isEmpty()) {
+      return;
+    }
+    final Set<StyleRange> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (final StyleRange style : styledText.getStyleRanges(false)) {
+      // runs with the same style share the StyleRange
+      if (seen.add(style)) {
+        this.keep(style.font);
+        this.keep(style.foreground);
+        this.keep(style.background);
+        this.keep(style.underlineColor);
+        this.keep(style.strikeoutColor);
+        this.keep(style.borderColor);
+        if (this.unused.isEmpty()) {
+          return;
+        }
+      }
+    }
+    for (final Entry entry : this.unused) {
+      this.entries.remove(entry.key);
+      this.resources.remove(entry.resource);
+      entry.resource.dispose();
+    }
+    this.unused.clear();
+  }
+
+  void keep(final Resource resource) {
+    if (resource != null) {
+      final Entry entry = this.resources.get(resource);
+      if (entry != null) {
+        this.unused.remove(entry);
+      }
+    }
+  }
+
+  /**
+   * Disposes of all resources.
+   */
+  void dispose() {
+    for (final Entry entry : this.entries.values()) {
+      entry.resource.dispose();
+    }
+    this.entries.clear();
+    this.resources.clear();
+    this.unused.clear();
+  }
+}
@@ -0,0 +1,316 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Font;
+import org.eclipse.swt.graphics.FontData;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * The styles of a document in a compact binary form, saved next to the
+ * text in a file with the same name and the extension ".styles".
+ * <p>
+ * The file holds a table of the distinct styles, followed by the runs
+ * in three columns: the gap between the end of the previous run and the
+ * start of the run, its length, and the index of its style in the table.
+ * All numbers are written with a variable length, so most runs take
+ * three bytes. The file is read from a memory-mapped buffer. Each style,
+ * color and font of the table is created once, and the runs share the
+ * styles, as StyledText.setStyleRanges(int, int, int[], StyleRange[])
+ * allows.
+ * </p>
+ * <p>
+ * Runs that show images or controls are not saved.
+ * </p>
+ */
+class StyleFile {
+  static final int MAGIC = 0x53575453; // "SWTS"
+  static final int VERSION = 1;
+  static final String EXTENSION = ".styles"; //$NON-NLS-1$
+
+  static final int STRIKEOUT = 1;
+  static final int UNDERLINE = 1 << 1;
+  static final int FONT = 1 << 2;
+  static final int LINK = 1 << 3;
+
+  /**
+   * Creates the colors and fonts of the styles that are read.
+   */
+  interface Resources {
+    Color getColor(RGB rgb);
+
+    Font getFont(FontData[] fontData);
+  }
+
+  final int charCount; // the length of the text that the styles belong to
+  final int[] ranges; // start and length of each run
+  final StyleRange[] styles; // the style of each run, shared by runs with the same style
+
+  StyleFile(final int charCount, final int[] ranges, final StyleRange[] styles) {
+    this.charCount = charCount;
+    this.ranges = ranges;
+    this.styles = styles;
+  }
+
+  /**
+   * Returns the style file of a text file.
+   */
+  static Path getPath(final String fileName) {
+    return Paths.get(fileName + EXTENSION);
+  }
+
+  /**
+   * Reads a style file.
+   *
+   * @param path the file to read
+   * @param resources creates the colors and fonts
+   * @return the styles
+   * @throws IOException if the file cannot be read or is not a style file
+   */
+  static StyleFile read(final Path path, final Resources resources) throws IOException {
+    final ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+        throw new IOException(path + ": not a style file"); //$NON-NLS-1$
+      }
+      final int charCount = readInt(buffer);
+      final Map<Integer, Color> colors = new HashMap<>();
+      final StyleRange[] table = new StyleRange[readInt(buffer)];
+      for (int i = 0; i < table.length; i++) {
+        table[i] = readStyle(buffer, resources, colors);
+      }
+      final int count = readInt(buffer);
+      final int[] ranges = new int[count * 2];
+      final StyleRange[] styles = new StyleRange[count];
+      long end = 0;
+      for (int i = 0; i < count; i++) {
+        final int gap = readInt(buffer), length = readInt(buffer);
+        if ((gap < 0) || (length < 0) || ((end + gap + length) > charCount)) {
+          // StyledText.setStyleRanges would throw IllegalArgumentException
+          throw new IOException(path + ": damaged style file"); //$NON-NLS-1$
+        }
+        ranges[i * 2] = (int) (end += gap);
+        ranges[(i * 2) + 1] = length;
+        end += length;
+      }
+      for (int i = 0; i < count; i++) {
+        styles[i] = table[readInt(buffer)];
+      }
+      return new StyleFile(charCount, ranges, styles);
+    } catch (final RuntimeException e) {
+      // BufferUnderflowException, or a style index out of range
+      throw new IOException(path + ": damaged style file", e); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Writes a style file.
+   *
+   * @param path the file to write
+   * @param charCount the length of the text
+   * @param ranges start and length of each run, in ascending order
+   * @param styles the style of each run
+   * @throws IOException if the file cannot be written
+   */
+  static void write(final Path path, final int charCount, final int[] ranges,
+      final StyleRange[] styles) throws IOException {
+    // Intern the styles; the copies have no range, so equal styles are equal
+    final Map<StyleRange, Integer> table = new LinkedHashMap<>();
+    final int[] runs = new int[ranges.length];
+    final int[] indices = new int[styles.length];
+    int count = 0;
+    for (int i = 0; i < styles.length; i++) {
+      final StyleRange style = styles[i];
+      if ((style.metrics != null)
+          || ((style.data != null) && !(style.data instanceof String))) {
+        continue; // images and controls
+      }
+      final StyleRange key = (StyleRange) style.clone();
+      key.start = key.length = 0;
+      Integer index = table.get(key);
+      if (index == null) {
+        index = Integer.valueOf(table.size());
+        table.put(key, index);
+      }
+      runs[count * 2] = ranges[i * 2];
+      runs[(count * 2) + 1] = ranges[(i * 2) + 1];
+      indices[count++] = index.intValue();
+    }
+    final int runCount = count;
+    // the stream is not closed, the channel is closed once it is forced to the disk
+    AtomicFile.write(path, channel -> {
+      final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+      final ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+      out.write(header.array());
+      writeInt(out, charCount);
+      writeInt(out, table.size());
+      for (final StyleRange style : table.keySet()) {
+        writeStyle(out, style);
+      }
+      writeInt(out, runCount);
+      int end = 0;
+      for (int i = 0; i < runCount; i++) {
+        writeInt(out, runs[i * 2] - end);
+        writeInt(out, runs[(i * 2) + 1]);
+        end = runs[i * 2] + runs[(i * 2) + 1];
+      }
+      for (int i = 0; i < runCount; i++) {
+        writeInt(out, indices[i]);
+      }
+      out.flush();
+    });
+  }
+
+  static StyleRange readStyle(final ByteBuffer buffer, final Resources resources,
+      final Map<Integer, Color> colors) {
+    final StyleRange style = new StyleRange();
+    final int flags = readInt(buffer);
+    style.strikeout = (flags & STRIKEOUT) != 0;
+    style.underline = (flags & UNDERLINE) != 0;
+    style.fontStyle = readInt(buffer);
+    style.underlineStyle = readInt(buffer);
+    style.borderStyle = readInt(buffer);
+    final int rise = readInt(buffer);
+    style.rise = (rise >>> 1) ^ -(rise & 1);
+    style.foreground = readColor(buffer, resources, colors);
+    style.background = readColor(buffer, resources, colors);
+    style.underlineColor = readColor(buffer, resources, colors);
+    style.strikeoutColor = readColor(buffer, resources, colors);
+    style.borderColor = readColor(buffer, resources, colors);
+    if ((flags & FONT) != 0) {
+      final FontData[] fontData = new FontData[readInt(buffer)];
+      for (int i = 0; i < fontData.length; i++) {
+        fontData[i] = new FontData(readString(buffer));
+      }
+      style.font = resources.getFont(fontData);
+    }
+    if ((flags & LINK) != 0) {
+      style.data = readString(buffer);
+    }
+    return style;
+  }
+
+  static void writeStyle(final OutputStream out, final StyleRange style) throws IOException {
+    int flags = 0;
+    if (style.strikeout) {
+      flags |= STRIKEOUT;
+    }
+    if (style.underline) {
+      flags |= UNDERLINE;
+    }
+    if (style.font != null) {
+      flags |= FONT;
+    }
+    if (style.data instanceof String) {
+      flags |= LINK;
+    }
+    writeInt(out, flags);
+    writeInt(out, style.fontStyle);
+    writeInt(out, style.underlineStyle);
+    writeInt(out, style.borderStyle);
+    writeInt(out, (style.rise << 1) ^ (style.rise >> 31));
+    writeColor(out, style.foreground);
+    writeColor(out, style.background);
+    writeColor(out, style.underlineColor);
+    writeColor(out, style.strikeoutColor);
+    writeColor(out, style.borderColor);
+    if (style.font != null) {
+      final FontData[] fontData = style.font.getFontData();
+      writeInt(out, fontData.length);
+      for (final FontData data : fontData) {
+        writeString(out, data.toString());
+      }
+    }
+    if (style.data instanceof String) {
+      writeString(out, (String) style.data);
+    }
+  }
+
+  /*
+   * Colors are written as 0 for none, or as 0xRRGGBB + 1.
+   */
+  static Color readColor(final ByteBuffer buffer, final Resources resources,
+      final Map<Integer, Color> colors) {
+    final int value = readInt(buffer);
+    if (value == 0) {
+      return null;
+    }
+    return colors.computeIfAbsent(Integer.valueOf(value), key -> {
+      final int rgb = key.intValue() - 1;
+      return resources.getColor(new RGB((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF));
+    });
+  }
+
+  static void writeColor(final OutputStream out, final Color color) throws IOException {
+    if (color == null) {
+      writeInt(out, 0);
+    } else {
+      writeInt(out, ((color.getRed() << 16) | (color.getGreen() << 8) | color.getBlue()) + 1);
+    }
+  }
+
+  static String readString(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[readInt(buffer)];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeString(final OutputStream out, final String string) throws IOException {
+    final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    writeInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  /*
+   * Unsigned numbers are written in groups of 7 bits, lowest first; the
+   * high bit of each byte tells whether another byte follows.
+   */
+  static int readInt(final ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0;; shift += 7) {
+      final byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  static void writeInt(final OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
@@ -14,17 +14,31 @@
 package org.eclipse.swt.examples.texteditor;
 
 import static org.eclipse.swt.events.MenuListener.menuShownAdapter;
+import static org.eclipse.swt.events.SelectionListener.widgetDefaultSelectedAdapter;
 import static org.eclipse.swt.events.SelectionListener.widgetSelectedAdapter;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.StringTokenizer;
+import java.util.regex.PatternSyntaxException;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.browser.Browser;
@@ -38,7 +52,9 @@ import org.eclipse.swt.events.ControlListener;
 import org.eclipse.swt.events.MenuAdapter;
 import org.eclipse.swt.events.MenuEvent;
 import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.events.SelectionListener;
+import org.eclipse.swt.events.TraverseListener;
 import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
@@ -80,7 +96,16 @@ public class TextEditor {
   Shell shell;
   CoolBar coolBar;
   StyledText styledText;
+  ChunkedContent content;
+  ContentLoader loader;
+  EditHistory history;
   Label statusBar;
+  Composite findBar;
+  Text findText, replaceText;
+  Button regexButton, caseButton;
+  Label findStatus;
+  TextSearch search;
+  boolean replacing; // true while all matches are replaced
   ToolItem boldControl, italicControl, leftAlignmentItem, centerAlignmentItem,
       rightAlignmentItem, justifyAlignmentItem, blockSelectionItem;
   Combo fontNameControl, fontSizeControl;
@@ -91,6 +116,7 @@ public class TextEditor {
   StyleRange[] selectedRanges;
   int newCharCount, start;
   String fileName = null;
+  Charset charset = Charset.defaultCharset(); // of the files opened and saved
   int styleState;
   String link;
 
@@ -101,6 +127,7 @@ public class TextEditor {
       iBaselineUp, iBaselineDown, iBulletList, iNumberedList, iBlockSelection,
       iBorderStyle;
   Font font, textFont;
+  ResourcePool pool;
   Color textForeground, textBackground, strikeoutColor, underlineColor,
       borderColor;
 
@@ -186,9 +213,13 @@ public class TextEditor {
     this.shell.setText(getResourceString("Window_title")); //$NON-NLS-1$
     this.styledText = new StyledText(this.shell,
         SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL);
+    this.content = new ChunkedContent(this.styledText.getLineDelimiter());
+    this.styledText.setContent(this.content);
+    this.history = new EditHistory(this.styledText, this.content, this.pool);
     this.createMenuBar();
     this.createToolBar();
     this.createPopup();
+    this.createFindBar();
     this.statusBar = new Label(this.shell, SWT.NONE);
     this.installListeners();
     this.updateToolBar();
@@ -198,6 +229,31 @@ public class TextEditor {
     return this.shell;
   }
 
+  /*
+   * Adds a run to the runs being built and returns their new count. The
+   * last run is extended instead if it ends where the run starts and has
+   * a similar style. Unstyled runs are left out, as the gaps between runs
+   * are unstyled.
+   */
+  static int addRun(final int[] ranges, final StyleRange[] styles, final int count,
+      final int start, final int length, final StyleRange style) {
+    if ((length == 0) || style.isUnstyled()) {
+      return count;
+    }
+    if (count > 0) {
+      final StyleRange last = styles[(count / 2) - 1];
+      if (((ranges[count - 2] + ranges[count - 1]) == start)
+          && ((last == style) || last.similarTo(style))) {
+        ranges[count - 1] += length;
+        return count;
+      }
+    }
+    ranges[count] = start;
+    ranges[count + 1] = length;
+    styles[count / 2] = style;
+    return count + 2;
+  }
+
   void addControl(final Control control) {
     final int offset = this.styledText.getCaretOffset();
     this.styledText.replaceTextRange(offset, 0, "\uFFFC"); //$NON-NLS-1$
@@ -231,8 +287,8 @@ public class TextEditor {
     if ((0 <= newIndex) && (newIndex < this.fontSizeControl.getItemCount())) {
       final String name = this.fontNameControl.getText();
       final int size = Integer.parseInt(this.fontSizeControl.getItem(newIndex));
-      this.disposeResource(this.textFont);
-      this.textFont = new Font(this.display, name, size, SWT.NORMAL);
+      this.textFont = this.pool.replace(this.textFont,
+          this.pool.getFont(name, size, SWT.NORMAL));
       this.setStyle(FONT);
       this.updateToolBar();
     }
@@ -259,24 +315,13 @@ public class TextEditor {
         return;
       }
       this.fileName = name;
-      try (FileInputStream file = new FileInputStream(name);) {
-        this.styledText.setText(this.openFile(file));
-      } catch (final IOException e) {
-        this.showError(getResourceString("Error"), e.getMessage()); //$NON-NLS-1$
-      }
+      this.loadFile(name);
     }));
 
     final MenuItem saveItem = new MenuItem(fileMenu, SWT.PUSH);
     saveItem.setText(getResourceString("Save_menuitem")); //$NON-NLS-1$
     saveItem.addSelectionListener(widgetSelectedAdapter(event -> this.saveFile()));
 
-    fileMenu.addMenuListener(new MenuAdapter() {
-      @Override
-      public void menuShown(final MenuEvent event) {
-        saveItem.setEnabled(TextEditor.this.fileName != null);
-      }
-    });
-
     final MenuItem saveAsItem = new MenuItem(fileMenu, SWT.PUSH);
     saveAsItem.setText(getResourceString("SaveAs_menuitem")); //$NON-NLS-1$
     saveAsItem.addSelectionListener(widgetSelectedAdapter(event -> {
@@ -294,6 +339,45 @@ public class TextEditor {
       }
     }));
 
+    final MenuItem exportItem = new MenuItem(fileMenu, SWT.PUSH);
+    exportItem.setText(getResourceString("Export_menuitem")); //$NON-NLS-1$
+    exportItem.addSelectionListener(widgetSelectedAdapter(event -> {
+      final FileDialog dialog = new FileDialog(this.shell, SWT.SAVE);
+      dialog.setFilterNames(new String[] { getResourceString("RTF_Documents"), //$NON-NLS-1$
+          getResourceString("HTML_Documents") }); //$NON-NLS-1$
+      dialog.setFilterExtensions(new String[] { "*.rtf", "*.html" }); //$NON-NLS-1$ //$NON-NLS-2$
+      final String name = dialog.open();
+      if (name != null) {
+        this.exportFile(name, dialog.getFilterIndex() == 1);
+      }
+    }));
+
+    fileMenu.addMenuListener(new MenuAdapter() {
+      @Override
+      public void menuShown(final MenuEvent event) {
+        final boolean loading = TextEditor.this.loader != null;
+        saveItem.setEnabled((TextEditor.this.fileName != null) && !loading);
+        saveAsItem.setEnabled(!loading);
+        exportItem.setEnabled(!loading);
+      }
+    });
+
+    final MenuItem encodingItem = new MenuItem(fileMenu, SWT.CASCADE);
+    encodingItem.setText(getResourceString("Encoding_menuitem")); //$NON-NLS-1$
+    final Menu encodingMenu = new Menu(this.shell, SWT.DROP_DOWN);
+    encodingItem.setMenu(encodingMenu);
+    for (final Charset encoding : new LinkedHashSet<>(Arrays.asList(Charset.defaultCharset(),
+        StandardCharsets.UTF_8, StandardCharsets.UTF_16, StandardCharsets.ISO_8859_1))) {
+      final MenuItem item = new MenuItem(encodingMenu, SWT.RADIO);
+      item.setText(encoding.displayName());
+      item.setSelection(encoding.equals(this.charset));
+      item.addSelectionListener(widgetSelectedAdapter(event -> {
+        if (item.getSelection()) {
+          this.charset = encoding;
+        }
+      }));
+    }
+
     new MenuItem(fileMenu, SWT.SEPARATOR);
 
     final MenuItem exitItem = new MenuItem(fileMenu, SWT.PUSH);
@@ -305,6 +389,29 @@ public class TextEditor {
     final Menu editMenu = new Menu(this.shell, SWT.DROP_DOWN);
     editItem.setText(getResourceString("Edit_menuitem")); //$NON-NLS-1$
     editItem.setMenu(editMenu);
+    final MenuItem undoItem = new MenuItem(editMenu, SWT.PUSH);
+    undoItem.setText(getResourceString("Undo_menuitem")); //$NON-NLS-1$
+    undoItem.setAccelerator(SWT.MOD1 | 'z');
+    undoItem.addSelectionListener(widgetSelectedAdapter(event -> {
+      // always enabled, so that the accelerator works; not while loading or in the find bar
+      if (this.styledText.getEditable() && this.styledText.isFocusControl()) {
+        this.history.undo();
+        this.updateToolBar();
+      }
+    }));
+
+    final MenuItem redoItem = new MenuItem(editMenu, SWT.PUSH);
+    redoItem.setText(getResourceString("Redo_menuitem")); //$NON-NLS-1$
+    redoItem.setAccelerator(SWT.MOD1 | 'y');
+    redoItem.addSelectionListener(widgetSelectedAdapter(event -> {
+      // always enabled, so that the accelerator works; not while loading or in the find bar
+      if (this.styledText.getEditable() && this.styledText.isFocusControl()) {
+        this.history.redo();
+        this.updateToolBar();
+      }
+    }));
+
+    new MenuItem(editMenu, SWT.SEPARATOR);
     final MenuItem cutItem = new MenuItem(editMenu, SWT.PUSH);
     cutItem.setText(getResourceString("Cut_menuitem")); //$NON-NLS-1$
     cutItem.setImage(this.iCut);
@@ -333,6 +440,11 @@ public class TextEditor {
     selectAllItem.addSelectionListener(
         widgetSelectedAdapter(event -> this.styledText.selectAll()));
 
+    final MenuItem findItem = new MenuItem(editMenu, SWT.PUSH);
+    findItem.setText(getResourceString("Find_menuitem")); //$NON-NLS-1$
+    findItem.setAccelerator(SWT.MOD1 | 'f');
+    findItem.addSelectionListener(widgetSelectedAdapter(event -> this.showFindBar(true)));
+
     editMenu.addMenuListener(menuShownAdapter(event -> {
       final int selectionCount = this.styledText.getSelectionCount();
       cutItem.setEnabled(selectionCount > 0);
@@ -346,8 +458,8 @@ public class TextEditor {
       final MenuItem item = (MenuItem) event.widget;
       final boolean enabled = item.getSelection();
       this.styledText.setWordWrap(enabled);
-      editMenu.getItem(6).setEnabled(enabled);
-      editMenu.getItem(8).setEnabled(enabled);
+      editMenu.getItem(10).setEnabled(enabled);
+      editMenu.getItem(12).setEnabled(enabled);
       this.leftAlignmentItem.setEnabled(enabled);
       this.centerAlignmentItem.setEnabled(enabled);
       this.rightAlignmentItem.setEnabled(enabled);
@@ -498,6 +610,52 @@ public class TextEditor {
     }
   }
 
+  void createFindBar() {
+    this.search = new TextSearch(this.content);
+    this.findBar = new Composite(this.shell, SWT.NONE);
+    this.findBar.setLayout(new GridLayout(11, false));
+    final Label findLabel = new Label(this.findBar, SWT.NONE);
+    findLabel.setText(getResourceString("Find")); //$NON-NLS-1$
+    this.findText = new Text(this.findBar, SWT.SINGLE | SWT.BORDER);
+    this.findText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+    final Label replaceLabel = new Label(this.findBar, SWT.NONE);
+    replaceLabel.setText(getResourceString("ReplaceWith")); //$NON-NLS-1$
+    this.replaceText = new Text(this.findBar, SWT.SINGLE | SWT.BORDER);
+    this.replaceText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+    this.regexButton = new Button(this.findBar, SWT.CHECK);
+    this.regexButton.setText(getResourceString("RegularExpression")); //$NON-NLS-1$
+    this.caseButton = new Button(this.findBar, SWT.CHECK);
+    this.caseButton.setText(getResourceString("MatchCase")); //$NON-NLS-1$
+    final Button nextButton = new Button(this.findBar, SWT.PUSH);
+    nextButton.setText(getResourceString("FindNext")); //$NON-NLS-1$
+    final Button previousButton = new Button(this.findBar, SWT.PUSH);
+    previousButton.setText(getResourceString("FindPrevious")); //$NON-NLS-1$
+    final Button replaceButton = new Button(this.findBar, SWT.PUSH);
+    replaceButton.setText(getResourceString("Replace")); //$NON-NLS-1$
+    final Button replaceAllButton = new Button(this.findBar, SWT.PUSH);
+    replaceAllButton.setText(getResourceString("ReplaceAll")); //$NON-NLS-1$
+    this.findStatus = new Label(this.findBar, SWT.NONE);
+    this.findStatus.setLayoutData(new GridData(150, SWT.DEFAULT));
+
+    this.findText.addModifyListener(event -> this.updateSearch());
+    this.regexButton.addSelectionListener(widgetSelectedAdapter(event -> this.updateSearch()));
+    this.caseButton.addSelectionListener(widgetSelectedAdapter(event -> this.updateSearch()));
+    this.findText.addSelectionListener(widgetDefaultSelectedAdapter(event -> this.find(true)));
+    nextButton.addSelectionListener(widgetSelectedAdapter(event -> this.find(true)));
+    previousButton.addSelectionListener(widgetSelectedAdapter(event -> this.find(false)));
+    replaceButton.addSelectionListener(widgetSelectedAdapter(event -> this.replace()));
+    replaceAllButton.addSelectionListener(widgetSelectedAdapter(event -> this.replaceAll()));
+    final TraverseListener escape = event -> {
+      if (event.detail == SWT.TRAVERSE_ESCAPE) {
+        event.doit = false;
+        this.showFindBar(false);
+      }
+    };
+    this.findText.addTraverseListener(escape);
+    this.replaceText.addTraverseListener(escape);
+    this.findBar.setVisible(false);
+  }
+
   void createPopup() {
     final Menu menu = new Menu(this.styledText);
     final MenuItem cutItem = new MenuItem(menu, SWT.PUSH);
@@ -583,7 +741,7 @@ public class TextEditor {
       final RGB newRgb = dialog.open();
       if (newRgb != null) {
         if (!newRgb.equals(rgb)) {
-          this.underlineColor = new Color(newRgb);
+          this.underlineColor = this.pool.replace(this.underlineColor, this.pool.getColor(newRgb));
         }
         if (this.underlineSingleItem.getSelection()) {
           this.setStyle(UNDERLINE_SINGLE);
@@ -631,7 +789,7 @@ public class TextEditor {
           return;
         }
         if (!newRgb.equals(rgb)) {
-          this.strikeoutColor = new Color(newRgb);
+          this.strikeoutColor = this.pool.replace(this.strikeoutColor, this.pool.getColor(newRgb));
         }
       }
       this.setStyle(STRIKEOUT);
@@ -672,7 +830,7 @@ public class TextEditor {
       final RGB newRgb = dialog.open();
       if (newRgb != null) {
         if (!newRgb.equals(rgb)) {
-          this.borderColor = new Color(newRgb);
+          this.borderColor = this.pool.replace(this.borderColor, this.pool.getColor(newRgb));
         }
         if (this.borderDashItem.getSelection()) {
           this.setStyle(BORDER_DASH);
@@ -716,7 +874,7 @@ public class TextEditor {
           return;
         }
         if (!newRgb.equals(rgb)) {
-          this.textForeground = new Color(newRgb);
+          this.textForeground = this.pool.replace(this.textForeground, this.pool.getColor(newRgb));
         }
       }
       this.setStyle(FOREGROUND);
@@ -735,7 +893,7 @@ public class TextEditor {
           return;
         }
         if (!newRgb.equals(rgb)) {
-          this.textBackground = new Color(newRgb);
+          this.textBackground = this.pool.replace(this.textBackground, this.pool.getColor(newRgb));
         }
       }
       this.setStyle(BACKGROUND);
@@ -793,8 +951,8 @@ public class TextEditor {
     final SelectionListener adapter = widgetSelectedAdapter(event -> {
       final String name = this.fontNameControl.getText();
       final int size = Integer.parseInt(this.fontSizeControl.getText());
-      this.disposeResource(this.textFont);
-      this.textFont = new Font(this.display, name, size, SWT.NORMAL);
+      this.textFont = this.pool.replace(this.textFont,
+          this.pool.getFont(name, size, SWT.NORMAL));
       this.setStyle(FONT);
     });
     this.fontSizeControl.addSelectionListener(adapter);
@@ -920,21 +1078,9 @@ public class TextEditor {
   }
 
   void disposeRanges(final StyleRange[] ranges) {
-    final StyleRange[] allRanges = this.styledText.getStyleRanges(0,
-        this.styledText.getCharCount(), false);
+    this.pool.discard(ranges);
+    this.pool.collect(this.styledText);
     for (final StyleRange rangeToDispose : ranges) {
-      boolean disposeFont = true;
-      for (final StyleRange range : allRanges) {
-        if (disposeFont && (rangeToDispose.font == range.font)) {
-          disposeFont = false;
-          break;
-        }
-      }
-      if (disposeFont && (rangeToDispose.font != this.textFont)
-          && (rangeToDispose.font != null)) {
-        rangeToDispose.font.dispose();
-      }
-
       final Object data = rangeToDispose.data;
       if (data != null) {
         if (data instanceof Image) {
@@ -947,21 +1093,39 @@ public class TextEditor {
     }
   }
 
-  void disposeResource(final Font font) {
-    if (font == null) {
-      return;
-    }
-    final StyleRange[] styles = this.styledText.getStyleRanges(0,
-        this.styledText.getCharCount(), false);
-    int index = 0;
-    while (index < styles.length) {
-      if (styles[index].font == font) {
-        break;
-      }
-      index++;
+  /**
+   * Writes the text and its styles to an RTF or an HTML file.
+   */
+  void exportFile(final String name, final boolean html) {
+    try {
+      AtomicFile.write(Paths.get(name), channel -> {
+        final Charset charset = html ? StandardCharsets.UTF_8 : StandardCharsets.US_ASCII;
+        final Writer writer = new BufferedWriter(Channels.newWriter(channel, charset.newEncoder(), -1));
+        // the writer is not closed, the channel is closed once it is forced to the disk
+        if (html) {
+          new DocumentWriter.HTML(this.styledText, writer).write();
+        } else {
+          new DocumentWriter.RTF(this.styledText, writer).write();
+        }
+      });
+    } catch (final IOException e) {
+      this.showError(getResourceString("Error"), e.getMessage()); //$NON-NLS-1$
     }
-    if (index == styles.length) {
-      font.dispose();
+  }
+
+  /**
+   * Selects the next or the previous match of the find bar.
+   */
+  void find(final boolean forward) {
+    final Point selection = this.styledText.getSelection();
+    this.find(forward ? selection.y : selection.x, forward);
+  }
+
+  void find(final int offset, final boolean forward) {
+    final int[] match = this.search.find(offset, forward);
+    this.setFindStatus(match == null ? getResourceString("NotFound") : ""); //$NON-NLS-1$ //$NON-NLS-2$
+    if (match != null) {
+      this.styledText.setSelection(match[0], match[1]);
     }
   }
 
@@ -991,8 +1155,7 @@ public class TextEditor {
 
   StyleRange[] getStyles(final InputStream stream) {
     try {
-      StyleRange[] styles = new StyleRange[256];
-      int count = 0;
+      final List<StyleRange> styles = new ArrayList<>();
       final BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
       String line;
       while ((line = reader.readLine()) != null) {
@@ -1007,27 +1170,17 @@ public class TextEditor {
           final int red = Integer.parseInt(tokenizer.nextToken());
           final int green = Integer.parseInt(tokenizer.nextToken());
           final int blue = Integer.parseInt(tokenizer.nextToken());
-          range.foreground = new Color(red, green, blue);
+          range.foreground = this.pool.getColor(new RGB(red, green, blue));
         }
         if (tokenizer.hasMoreTokens()) {
           final int red = Integer.parseInt(tokenizer.nextToken());
           final int green = Integer.parseInt(tokenizer.nextToken());
           final int blue = Integer.parseInt(tokenizer.nextToken());
-          range.background = new Color(red, green, blue);
+          range.background = this.pool.getColor(new RGB(red, green, blue));
         }
-        if (count >= styles.length) {
-          final StyleRange[] newStyles = new StyleRange[styles.length + 256];
-          System.arraycopy(styles, 0, newStyles, 0, styles.length);
-          styles = newStyles;
-        }
-        styles[count++] = range;
-      }
-      if (count < styles.length) {
-        final StyleRange[] newStyles = new StyleRange[count];
-        System.arraycopy(styles, 0, newStyles, 0, count);
-        styles = newStyles;
+        styles.add(range);
       }
-      return styles;
+      return styles.toArray(new StyleRange[styles.size()]);
     } catch (final IOException e) {
       this.showError(getResourceString("Error"), e.getMessage()); //$NON-NLS-1$
     }
@@ -1041,7 +1194,10 @@ public class TextEditor {
   }
 
   void handleModify(final ModifyEvent event) {
-    if ((this.newCharCount > 0) && (this.start >= 0)) {
+    if (this.replacing) {
+      return; // replaceAll styles the text and records the change itself
+    }
+    if ((this.newCharCount > 0) && (this.start >= 0) && !this.history.applying) {
       final StyleRange style = new StyleRange();
       if ((this.textFont != null) && !this.textFont.equals(this.styledText.getFont())) {
         style.font = this.textFont;
@@ -1112,6 +1268,7 @@ public class TextEditor {
       final StyleRange[] styles = { style };
       this.styledText.setStyleRanges(this.start, this.newCharCount, ranges, styles);
     }
+    this.history.textChanged();
     this.disposeRanges(this.selectedRanges);
   }
 
@@ -1134,6 +1291,27 @@ public class TextEditor {
     }
   }
 
+  /*
+   * Highlights the matches of the find bar in the lines being painted.
+   */
+  void handlePaintMatches(final PaintEvent event) {
+    if (!this.findBar.getVisible() || (this.search.pattern == null)) {
+      return;
+    }
+    final int firstLine = this.styledText.getLineIndex(event.y);
+    final int lastLine = this.styledText.getLineIndex(event.y + event.height);
+    final int[] matches = this.search.findAll(firstLine, lastLine);
+    if (matches.length > 0) {
+      final GC gc = event.gc;
+      gc.setBackground(this.display.getSystemColor(SWT.COLOR_YELLOW));
+      gc.setAlpha(96);
+      for (int i = 0; i < matches.length; i += 2) {
+        gc.fillRectangle(this.styledText.getTextBounds(matches[i], matches[i + 1] - 1));
+      }
+      gc.setAlpha(255);
+    }
+  }
+
   void handlePaintObject(final PaintObjectEvent event) {
     final GC gc = event.gc;
     final StyleRange style = event.style;
@@ -1157,10 +1335,13 @@ public class TextEditor {
     final Rectangle rect = this.shell.getClientArea();
     final Point cSize = this.coolBar.computeSize(rect.width, SWT.DEFAULT);
     final Point sSize = this.statusBar.computeSize(SWT.DEFAULT, SWT.DEFAULT);
+    final Point fSize = this.findBar.getVisible() ? this.findBar.computeSize(rect.width, SWT.DEFAULT)
+        : new Point(0, 0);
     final int statusMargin = 2;
+    final int textHeight = rect.height - cSize.y - (sSize.y + (2 * statusMargin)) - fSize.y;
     this.coolBar.setBounds(rect.x, rect.y, cSize.x, cSize.y);
-    this.styledText.setBounds(rect.x, rect.y + cSize.y, rect.width,
-        rect.height - cSize.y - (sSize.y + (2 * statusMargin)));
+    this.styledText.setBounds(rect.x, rect.y + cSize.y, rect.width, textHeight);
+    this.findBar.setBounds(rect.x, rect.y + cSize.y + textHeight, rect.width, fSize.y);
     this.statusBar.setBounds(rect.x + statusMargin,
         (rect.y + rect.height) - sSize.y - statusMargin,
         rect.width - (2 * statusMargin), sSize.y);
@@ -1173,9 +1354,11 @@ public class TextEditor {
 
     // mark styles to be disposed
     this.selectedRanges = this.styledText.getStyleRanges(this.start, replaceCharCount, false);
+    this.history.textChanging(this.start, replaceCharCount, event.text);
   }
 
   void initResources() {
+    this.pool = new ResourcePool(this.display);
     this.iBold = this.loadImage(this.display, "bold"); //$NON-NLS-1$
     this.iItalic = this.loadImage(this.display, "italic"); //$NON-NLS-1$
     this.iUnderline = this.loadImage(this.display, "underline"); //$NON-NLS-1$
@@ -1208,7 +1391,11 @@ public class TextEditor {
     this.styledText.addVerifyListener(event -> this.handleVerifyText(event));
     this.styledText.addModifyListener(event -> this.handleModify(event));
     this.styledText.addPaintObjectListener(event -> this.handlePaintObject(event));
+    this.styledText.addPaintListener(event -> this.handlePaintMatches(event));
     this.styledText.addListener(SWT.Dispose, event -> {
+      if (this.loader != null) {
+        this.loader.cancel();
+      }
       final StyleRange[] styles = this.styledText.getStyleRanges(0,
           this.styledText.getCharCount(), false);
       for (final StyleRange style : styles) {
@@ -1227,6 +1414,36 @@ public class TextEditor {
         ControlListener.controlResizedAdapter(event -> this.handleResize(event)));
   }
 
+  /**
+   * Reads a text file in the background. The text shows as it is read,
+   * and can be edited once it is read completely.
+   */
+  void loadFile(final String name) {
+    if (this.loader != null) {
+      this.loader.cancel();
+    }
+    this.pool.discard(this.styledText.getStyleRanges(false));
+    this.styledText.setText(""); //$NON-NLS-1$
+    this.history.clear();
+    this.pool.collect(this.styledText);
+    this.styledText.setEditable(false);
+    this.loader = new ContentLoader(Paths.get(name), this.charset, this.content,
+        this.display, () -> this.updateStatusBar(), error -> {
+          this.loader = null;
+          this.styledText.setEditable(true);
+          if (error != null) {
+            // the text is incomplete, so Save must not write it over the file
+            this.fileName = null;
+            this.showError(getResourceString("Error"), error.getMessage()); //$NON-NLS-1$
+          } else {
+            this.loadStyles(name);
+            this.pool.collect(this.styledText);
+          }
+          this.updateStatusBar();
+        });
+    this.loader.start();
+  }
+
   Image loadImage(final Display display, final String fileName) {
     Image image = null;
     try (InputStream sourceStream = this.getClass()
@@ -1240,8 +1457,33 @@ public class TextEditor {
     return image;
   }
 
+  /**
+   * Applies the styles saved next to a text file, if there are any and
+   * they belong to the text as it was read.
+   */
+  void loadStyles(final String name) {
+    final Path path = StyleFile.getPath(name);
+    if (!Files.isRegularFile(path)) {
+      return;
+    }
+    try {
+      final StyleFile styles = StyleFile.read(path, this.pool);
+      if (styles.charCount == this.styledText.getCharCount()) {
+        this.styledText.setStyleRanges(0, styles.charCount, styles.ranges, styles.styles);
+      }
+    } catch (final IOException e) {
+      this.showError(getResourceString("Error"), e.getMessage()); //$NON-NLS-1$
+    }
+  }
+
   void loadProfile(final int profile) {
     try {
+      if (this.loader != null) {
+        this.loader.cancel();
+        this.loader = null;
+        this.styledText.setEditable(true);
+      }
+      this.pool.discard(this.styledText.getStyleRanges(false));
       switch (profile) {
       case 1: {
         final String text = this.openFile(
@@ -1269,12 +1511,100 @@ public class TextEditor {
         break;
       }
       }
+      this.history.clear();
       this.updateToolBar();
     } catch (final Exception e) {
       this.showError(getResourceString("Error"), e.getMessage()); //$NON-NLS-1$
     }
   }
 
+  /*
+   * Returns the style of a run after a style is applied to it.
+   */
+  StyleRange mergeStyle(final int style, final StyleRange range, final StyleRange newRange) {
+    final StyleRange mergedRange = new StyleRange(range);
+    // Note: fontStyle is not copied by the constructor
+    mergedRange.fontStyle = range.fontStyle;
+    if ((style & FONT) != 0) {
+      mergedRange.font = newRange.font;
+    }
+    if ((style & FONT_STYLE) != 0) {
+      mergedRange.fontStyle = range.fontStyle ^ newRange.fontStyle;
+    }
+    if ((mergedRange.font != null)
+        && (((style & FONT) != 0) || ((style & FONT_STYLE) != 0))) {
+      boolean change = false;
+      final FontData[] fds = mergedRange.font.getFontData();
+      for (final FontData fd : fds) {
+        if (fd.getStyle() != mergedRange.fontStyle) {
+          fd.setStyle(mergedRange.fontStyle);
+          change = true;
+        }
+      }
+      if (change) {
+        mergedRange.font = this.pool.getFont(fds);
+      }
+    }
+    if ((style & FOREGROUND) != 0) {
+      mergedRange.foreground = newRange.foreground != range.foreground
+          ? newRange.foreground
+          : null;
+    }
+    if ((style & BACKGROUND) != 0) {
+      mergedRange.background = newRange.background != range.background
+          ? newRange.background
+          : null;
+    }
+    if ((style & BASELINE_UP) != 0) {
+      mergedRange.rise++;
+    }
+    if ((style & BASELINE_DOWN) != 0) {
+      mergedRange.rise--;
+    }
+    if ((style & STRIKEOUT) != 0) {
+      mergedRange.strikeout = !range.strikeout
+          || (range.strikeoutColor != newRange.strikeoutColor);
+      mergedRange.strikeoutColor = mergedRange.strikeout
+          ? newRange.strikeoutColor
+          : null;
+    }
+    if ((style & UNDERLINE) != 0) {
+      if ((style & UNDERLINE_LINK) != 0) {
+        if ((this.link != null) && (this.link.length() > 0)) {
+          mergedRange.underline = !range.underline
+              || (range.underlineStyle != newRange.underlineStyle)
+              || (range.data != newRange.data);
+        } else {
+          mergedRange.underline = false;
+        }
+        mergedRange.underlineColor = null;
+      } else {
+        mergedRange.underline = !range.underline
+            || (range.underlineStyle != newRange.underlineStyle)
+            || (range.underlineColor != newRange.underlineColor);
+        mergedRange.underlineColor = mergedRange.underline
+            ? newRange.underlineColor
+            : null;
+      }
+      mergedRange.underlineStyle = mergedRange.underline
+          ? newRange.underlineStyle
+          : SWT.NONE;
+      mergedRange.data = mergedRange.underline ? newRange.data : null;
+    }
+    if ((style & BORDER) != 0) {
+      if ((range.borderStyle != newRange.borderStyle)
+          || (range.borderColor != newRange.borderColor)) {
+        mergedRange.borderStyle = newRange.borderStyle;
+        mergedRange.borderColor = newRange.borderColor;
+      } else {
+        mergedRange.borderStyle = SWT.NONE;
+        mergedRange.borderColor = null;
+      }
+    }
+
+    return mergedRange;
+  }
+
   String openFile(final InputStream stream) throws IOException {
     final BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
     final StringBuilder buffer = new StringBuilder();
@@ -1329,9 +1659,7 @@ public class TextEditor {
     this.iLink.dispose();
     this.iLink = null;
 
-    if (this.textFont != null) {
-      this.textFont.dispose();
-    }
+    this.pool.dispose();
     this.textFont = null;
     this.textForeground = null;
     this.textBackground = null;
@@ -1345,16 +1673,95 @@ public class TextEditor {
     this.font = null;
   }
 
+  /**
+   * Replaces the selection if it is a match of the find bar, and selects
+   * the next match.
+   */
+  void replace() {
+    final Point selection = this.styledText.getSelection();
+    if (this.styledText.getEditable() && this.search.matches(selection.x, selection.y)) {
+      final String text;
+      try {
+        text = this.search.replace(selection.x, selection.y, this.replaceText.getText());
+      } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+        // a missing group or a trailing backslash in the replacement
+        this.setFindStatus(e.getMessage());
+        return;
+      }
+      this.styledText.replaceTextRange(selection.x, selection.y - selection.x, text);
+      this.styledText.setSelection(selection.x + text.length());
+    }
+    this.find(true);
+  }
+
+  /**
+   * Replaces all matches of the find bar in one change of the text and
+   * one change of the styles, which is undone as one edit.
+   */
+  void replaceAll() {
+    if (!this.styledText.getEditable()) {
+      return;
+    }
+    final TextSearch.Replacement replacement;
+    try {
+      replacement = this.search.replaceAll(this.replaceText.getText());
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      this.setFindStatus(e.getMessage());
+      return;
+    }
+    if (replacement == null) {
+      this.setFindStatus(getResourceString("NotFound")); //$NON-NLS-1$
+      return;
+    }
+    final int[] ranges = this.styledText.getRanges(replacement.start, replacement.length);
+    final StyleRange[] styles = this.styledText.getStyleRanges(replacement.start,
+        replacement.length, false);
+    final List<StyleRange> removed = new ArrayList<>();
+    final int count = replacement.mapRanges(ranges, styles, removed);
+    this.replacing = true;
+    try {
+      this.styledText.replaceTextRange(replacement.start, replacement.length, replacement.text);
+      this.styledText.setStyleRanges(replacement.start, replacement.text.length(),
+          Arrays.copyOf(ranges, count * 2), Arrays.copyOf(styles, count));
+    } finally {
+      this.replacing = false;
+    }
+    this.history.textChanged();
+    this.disposeRanges(removed.toArray(new StyleRange[removed.size()]));
+    this.setFindStatus(getResourceString("Replaced") + replacement.count); //$NON-NLS-1$
+  }
+
   void saveFile() {
     if (this.fileName != null) {
-      try (FileWriter file = new FileWriter(this.fileName);) {
-        file.write(this.styledText.getText());
+      try {
+        AtomicFile.write(Paths.get(this.fileName), this.content, this.charset);
       } catch (final IOException e) {
         this.showError(getResourceString("Error"), e.getMessage());
+        return;
+      }
+      try {
+        this.saveStyles(this.fileName);
+      } catch (final IOException e) {
+        this.showError(getResourceString("Error"), e.getMessage()); //$NON-NLS-1$
       }
     }
   }
 
+  /**
+   * Saves the styles of the text next to the text file, or removes the
+   * style file if the text has no styles.
+   */
+  void saveStyles(final String name) throws IOException {
+    final Path path = StyleFile.getPath(name);
+    final int[] ranges = this.styledText.getRanges();
+    if (ranges.length == 0) {
+      Files.deleteIfExists(path);
+      return;
+    }
+    StyleFile.write(path, this.styledText.getCharCount(), ranges,
+        this.styledText.getStyleRanges(false));
+  }
+
   void setBullet(final int type) {
     final Point selection = this.styledText.getSelection();
     final int lineStart = this.styledText.getLineAtOffset(selection.x);
@@ -1369,6 +1776,11 @@ public class TextEditor {
     }
   }
 
+  void setFindStatus(final String text) {
+    this.findStatus.setText(text);
+    this.findStatus.setToolTipText(text);
+  }
+
   void setLink() {
     final Shell dialog = new Shell(this.shell,
         SWT.APPLICATION_MODAL | SWT.SHELL_TRIM);
@@ -1489,129 +1901,35 @@ public class TextEditor {
       newRange.borderColor = this.borderColor;
     }
 
-    int newRangeStart = start;
-    int newRangeLength = length;
     final int[] ranges = this.styledText.getRanges(start, length);
     final StyleRange[] styles = this.styledText.getStyleRanges(start, length, false);
     final int maxCount = (ranges.length * 2) + 2;
     int[] newRanges = new int[maxCount];
     StyleRange[] newStyles = new StyleRange[maxCount / 2];
+    // runs with the same style share the StyleRange, so each style is merged once
+    final Map<StyleRange, StyleRange> mergedRanges = new IdentityHashMap<>();
     int count = 0;
+    int end = start;
     for (int i = 0; i < ranges.length; i += 2) {
       final int rangeStart = ranges[i];
       final int rangeLength = ranges[i + 1];
       final StyleRange range = styles[i / 2];
-      if (rangeStart > newRangeStart) {
-        newRangeLength = rangeStart - newRangeStart;
-        newRanges[count] = newRangeStart;
-        newRanges[count + 1] = newRangeLength;
-        newStyles[count / 2] = newRange;
-        count += 2;
-      }
-      newRangeStart = rangeStart + rangeLength;
-      newRangeLength = (start + length) - newRangeStart;
-
-      /* Create merged style range */
-      final StyleRange mergedRange = new StyleRange(range);
-      // Note: fontStyle is not copied by the constructor
-      mergedRange.fontStyle = range.fontStyle;
-      if ((style & FONT) != 0) {
-        mergedRange.font = newRange.font;
-      }
-      if ((style & FONT_STYLE) != 0) {
-        mergedRange.fontStyle = range.fontStyle ^ newRange.fontStyle;
-      }
-      if ((mergedRange.font != null)
-          && (((style & FONT) != 0) || ((style & FONT_STYLE) != 0))) {
-        boolean change = false;
-        final FontData[] fds = mergedRange.font.getFontData();
-        for (final FontData fd : fds) {
-          if (fd.getStyle() != mergedRange.fontStyle) {
-            fd.setStyle(mergedRange.fontStyle);
-            change = true;
-          }
-        }
-        if (change) {
-          mergedRange.font = new Font(this.display, fds);
-        }
-      }
-      if ((style & FOREGROUND) != 0) {
-        mergedRange.foreground = newRange.foreground != range.foreground
-            ? newRange.foreground
-            : null;
-      }
-      if ((style & BACKGROUND) != 0) {
-        mergedRange.background = newRange.background != range.background
-            ? newRange.background
-            : null;
-      }
-      if ((style & BASELINE_UP) != 0) {
-        mergedRange.rise++;
-      }
-      if ((style & BASELINE_DOWN) != 0) {
-        mergedRange.rise--;
-      }
-      if ((style & STRIKEOUT) != 0) {
-        mergedRange.strikeout = !range.strikeout
-            || (range.strikeoutColor != newRange.strikeoutColor);
-        mergedRange.strikeoutColor = mergedRange.strikeout
-            ? newRange.strikeoutColor
-            : null;
-      }
-      if ((style & UNDERLINE) != 0) {
-        if ((style & UNDERLINE_LINK) != 0) {
-          if ((this.link != null) && (this.link.length() > 0)) {
-            mergedRange.underline = !range.underline
-                || (range.underlineStyle != newRange.underlineStyle)
-                || (range.data != newRange.data);
-          } else {
-            mergedRange.underline = false;
-          }
-          mergedRange.underlineColor = null;
-        } else {
-          mergedRange.underline = !range.underline
-              || (range.underlineStyle != newRange.underlineStyle)
-              || (range.underlineColor != newRange.underlineColor);
-          mergedRange.underlineColor = mergedRange.underline
-              ? newRange.underlineColor
-              : null;
-        }
-        mergedRange.underlineStyle = mergedRange.underline
-            ? newRange.underlineStyle
-            : SWT.NONE;
-        mergedRange.data = mergedRange.underline ? newRange.data : null;
-      }
-      if ((style & BORDER) != 0) {
-        if ((range.borderStyle != newRange.borderStyle)
-            || (range.borderColor != newRange.borderColor)) {
-          mergedRange.borderStyle = newRange.borderStyle;
-          mergedRange.borderColor = newRange.borderColor;
-        } else {
-          mergedRange.borderStyle = SWT.NONE;
-          mergedRange.borderColor = null;
-        }
-      }
-
-      newRanges[count] = rangeStart;
-      newRanges[count + 1] = rangeLength;
-      newStyles[count / 2] = mergedRange;
-      count += 2;
+      count = addRun(newRanges, newStyles, count, end, rangeStart - end, newRange);
+      StyleRange mergedRange = mergedRanges.get(range);
+      if (mergedRange == null) {
+        mergedRange = this.mergeStyle(style, range, newRange);
+        mergedRanges.put(range, mergedRange);
+      }
+      count = addRun(newRanges, newStyles, count, rangeStart, rangeLength, mergedRange);
+      end = rangeStart + rangeLength;
     }
-    if (newRangeLength > 0) {
-      newRanges[count] = newRangeStart;
-      newRanges[count + 1] = newRangeLength;
-      newStyles[count / 2] = newRange;
-      count += 2;
-    }
-    if ((0 < count) && (count < maxCount)) {
-      final int[] tmpRanges = new int[count];
-      final StyleRange[] tmpStyles = new StyleRange[count / 2];
-      System.arraycopy(newRanges, 0, tmpRanges, 0, count);
-      System.arraycopy(newStyles, 0, tmpStyles, 0, count / 2);
-      newRanges = tmpRanges;
-      newStyles = tmpStyles;
+    count = addRun(newRanges, newStyles, count, end, (start + length) - end, newRange);
+    if (count < maxCount) {
+      newRanges = Arrays.copyOf(newRanges, count);
+      newStyles = Arrays.copyOf(newStyles, count / 2);
     }
     this.styledText.setStyleRanges(start, length, newRanges, newStyles);
+    this.history.styleChanged(start, length, ranges, styles, newRanges, newStyles);
     this.disposeRanges(styles);
   }
 
@@ -1622,6 +1940,44 @@ public class TextEditor {
     messageBox.open();
   }
 
+  /**
+   * Shows or hides the find bar. The selection, if it is short, becomes
+   * the text to find.
+   */
+  void showFindBar(final boolean visible) {
+    this.findBar.setVisible(visible);
+    this.handleResize(null);
+    if (visible) {
+      final int selectionCount = this.styledText.getSelectionCount();
+      if ((selectionCount > 0) && (selectionCount <= 256)) {
+        final String selection = this.styledText.getSelectionText();
+        if ((selection.indexOf('\r') < 0) && (selection.indexOf('\n') < 0)) {
+          this.findText.setText(selection);
+        }
+      }
+      this.findText.selectAll();
+      this.findText.setFocus();
+    } else {
+      this.styledText.setFocus();
+    }
+    this.styledText.redraw();
+  }
+
+  void updateSearch() {
+    try {
+      this.search.setPattern(this.findText.getText(), this.regexButton.getSelection(),
+          this.caseButton.getSelection());
+      this.setFindStatus(""); //$NON-NLS-1$
+    } catch (final PatternSyntaxException e) {
+      this.setFindStatus(e.getDescription());
+    }
+    if (this.search.pattern != null) {
+      // from the start of the selection, so the match grows as the text is typed
+      this.find(this.styledText.getSelection().x, true);
+    }
+    this.styledText.redraw();
+  }
+
   void updateStatusBar() {
     final int offset = this.styledText.getCaretOffset();
     final int lineIndex = this.styledText.getLineAtOffset(offset);
@@ -1630,7 +1986,9 @@ public class TextEditor {
         + offset + " " //$NON-NLS-1$
         + getResourceString("Line") //$NON-NLS-1$
         + lineIndex + "\t" //$NON-NLS-1$
-        + insertLabel);
+        + insertLabel
+        + (this.loader != null ? "\t" + getResourceString("Loading") //$NON-NLS-1$ //$NON-NLS-2$
+            + this.loader.getProgress() + "%" : "")); //$NON-NLS-1$ //$NON-NLS-2$
   }
 
   void updateStyleState(final int style, final int changingStyle) {
@@ -1672,15 +2030,11 @@ public class TextEditor {
       }
       if (range.foreground != null) {
         this.styleState |= FOREGROUND;
-        if (this.textForeground != range.foreground) {
-          this.textForeground = range.foreground;
-        }
+        this.textForeground = this.pool.replace(this.textForeground, range.foreground);
       }
       if (range.background != null) {
         this.styleState |= BACKGROUND;
-        if (this.textBackground != range.background) {
-          this.textBackground = range.background;
-        }
+        this.textBackground = this.pool.replace(this.textBackground, range.background);
       }
       if (range.underline) {
         switch (range.underlineStyle) {
@@ -1709,12 +2063,14 @@ public class TextEditor {
           this.underlineErrorItem.setSelection((this.styleState & UNDERLINE_ERROR) != 0);
           this.underlineSquiggleItem
               .setSelection((this.styleState & UNDERLINE_SQUIGGLE) != 0);
-          this.underlineColor = range.underlineColor;
+          this.underlineColor = this.pool.replace(this.underlineColor,
+              range.underlineColor);
         }
       }
       if (range.strikeout) {
         this.styleState |= STRIKEOUT;
-        this.strikeoutColor = range.strikeoutColor;
+        this.strikeoutColor = this.pool.replace(this.strikeoutColor,
+            range.strikeoutColor);
       }
       if (range.borderStyle != SWT.NONE) {
         switch (range.borderStyle) {
@@ -1731,7 +2087,7 @@ public class TextEditor {
         this.borderSolidItem.setSelection((this.styleState & BORDER_SOLID) != 0);
         this.borderDashItem.setSelection((this.styleState & BORDER_DASH) != 0);
         this.borderDotItem.setSelection((this.styleState & BORDER_DOT) != 0);
-        this.borderColor = range.borderColor;
+        this.borderColor = this.pool.replace(this.borderColor, range.borderColor);
       }
     }
 
@@ -1766,8 +2122,8 @@ public class TextEditor {
       index++;
     }
 
-    this.disposeResource(this.textFont);
-    this.textFont = font;
+    this.textFont = this.pool.replace(this.textFont, font);
+    this.pool.collect(this.styledText);
     final int lineIndex = this.styledText.getLineAtOffset(offset);
     final int alignment = this.styledText.getLineAlignment(lineIndex);
     this.leftAlignmentItem.setSelection((alignment & SWT.LEFT) != 0);
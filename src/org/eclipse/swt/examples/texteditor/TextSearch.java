@@ -0,0 +1,295 @@
+/*****************************************************************************
+ * Copyright (c) 2000, 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.swt.examples.texteditor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledTextContent;
+
+/**
+ * Finds and replaces text in a StyledText content, one line at a time.
+ * <p>
+ * The text of the document is never copied as a whole: each search asks
+ * the content for the lines it looks at, so finding the next match or the
+ * matches of the visible lines costs the lines that are searched. Matches
+ * do not span lines, so the pattern can use ^ and $ for the start and the
+ * end of a line. Empty matches are ignored.
+ * </p>
+ */
+class TextSearch {
+  /**
+   * The text that replaces all matches of the pattern, as one range of
+   * the content, and the offsets of the matches that it replaces.
+   */
+  static class Replacement {
+    int start, length; // the range of the content to replace
+    String text;
+    int count;
+    int[] oldStarts = new int[16], oldEnds = new int[16], newEnds = new int[16];
+
+    void add(final int oldStart, final int oldEnd, final int newEnd) {
+      if (this.count == this.oldStarts.length) {
+        this.oldStarts = Arrays.copyOf(this.oldStarts, this.count * 2);
+        this.oldEnds = Arrays.copyOf(this.oldEnds, this.count * 2);
+        this.newEnds = Arrays.copyOf(this.newEnds, this.count * 2);
+      }
+      this.oldStarts[this.count] = oldStart;
+      this.oldEnds[this.count] = oldEnd;
+      this.newEnds[this.count] = newEnd;
+      this.count++;
+    }
+
+    /**
+     * Moves the style runs of the replaced range to where their text is
+     * after the replacement. The replacement text of a match takes the
+     * style of the first character of the match; runs that lie within
+     * a match are dropped and added to the removed styles.
+     *
+     * @param ranges the runs, as returned by StyledText.getRanges for
+     *     the replaced range, changed in place
+     * @param styles the styles of the runs, changed in place
+     * @param removed the styles that were dropped
+     * @return the number of runs that are kept, at the front of the arrays
+     */
+    int mapRanges(final int[] ranges, final StyleRange[] styles, final List<StyleRange> removed) {
+      int kept = 0;
+      int match = 0, delta = 0;
+      for (int i = 0; i < styles.length; i++) {
+        int runStart = ranges[i * 2];
+        int runEnd = runStart + ranges[(i * 2) + 1];
+        // offsets only grow, so the matches before them are passed once
+        while ((match < this.count) && (this.oldEnds[match] <= runStart)) {
+          delta = this.newEnds[match] - this.oldEnds[match];
+          match++;
+        }
+        runStart = (match < this.count) && (this.oldStarts[match] < runStart)
+            ? this.newEnds[match] : runStart + delta;
+        while ((match < this.count) && (this.oldEnds[match] <= runEnd)) {
+          delta = this.newEnds[match] - this.oldEnds[match];
+          match++;
+        }
+        runEnd = (match < this.count) && (this.oldStarts[match] < runEnd)
+            ? this.newEnds[match] : runEnd + delta;
+        if (runEnd > runStart) {
+          ranges[kept * 2] = runStart;
+          ranges[(kept * 2) + 1] = runEnd - runStart;
+          styles[kept++] = styles[i];
+        } else {
+          removed.add(styles[i]);
+        }
+      }
+      return kept;
+    }
+  }
+
+  final StyledTextContent content;
+  Pattern pattern;
+
+  TextSearch(final StyledTextContent content) {
+    this.content = content;
+  }
+
+  /**
+   * Sets the text to search for.
+   *
+   * @param text the text, or a regular expression
+   * @param regularExpression whether the text is a regular expression
+   * @param caseSensitive whether the case of letters must match
+   * @throws java.util.regex.PatternSyntaxException if the regular
+   *     expression is not valid, in which case nothing is found
+   */
+  void setPattern(final String text, final boolean regularExpression,
+      final boolean caseSensitive) {
+    this.pattern = null;
+    if (text.length() > 0) {
+      int flags = regularExpression ? 0 : Pattern.LITERAL;
+      if (!caseSensitive) {
+        flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+      }
+      this.pattern = Pattern.compile(text, flags);
+    }
+  }
+
+  /**
+   * Returns the first match that starts at or after an offset, or the
+   * last match that ends at or before it, wrapping around the end of
+   * the document.
+   *
+   * @return the start and the end of the match, or null if there is none
+   */
+  int[] find(final int offset, final boolean forward) {
+    if (this.pattern == null) {
+      return null;
+    }
+    final int lineCount = this.content.getLineCount();
+    final int startLine = this.content.getLineAtOffset(offset);
+    for (int i = 0; i <= lineCount; i++) {
+      final int line = forward ? (startLine + i) % lineCount
+          : ((startLine - i) + lineCount) % lineCount;
+      final int lineOffset = this.content.getOffsetAtLine(line);
+      final Matcher matcher = this.pattern.matcher(this.content.getLine(line));
+      int[] found = null;
+      while (matcher.find()) {
+        if (matcher.end() == matcher.start()) {
+          continue;
+        }
+        final int start = lineOffset + matcher.start(), end = lineOffset + matcher.end();
+        if (forward) {
+          // the first pass over the start line looks after the offset only
+          if ((i > 0) || (start >= offset)) {
+            return new int[] { start, end };
+          }
+        } else if ((i > 0) || (end <= offset)) {
+          found = new int[] { start, end };
+        }
+      }
+      if (found != null) {
+        return found;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the matches in some lines, as start and end offsets.
+   */
+  int[] findAll(final int firstLine, final int lastLine) {
+    if (this.pattern == null) {
+      return EditHistory.NO_RANGES;
+    }
+    int[] matches = new int[16];
+    int count = 0;
+    for (int line = firstLine; line <= lastLine; line++) {
+      final int lineOffset = this.content.getOffsetAtLine(line);
+      final Matcher matcher = this.pattern.matcher(this.content.getLine(line));
+      while (matcher.find()) {
+        if (matcher.end() > matcher.start()) {
+          if (count == matches.length) {
+            matches = Arrays.copyOf(matches, count * 2);
+          }
+          matches[count++] = lineOffset + matcher.start();
+          matches[count++] = lineOffset + matcher.end();
+        }
+      }
+    }
+    return Arrays.copyOf(matches, count);
+  }
+
+  /**
+   * Returns whether a range of the content is a match.
+   */
+  boolean matches(final int start, final int end) {
+    return this.matcher(start, end) != null;
+  }
+
+  /**
+   * Returns the text that replaces a match, expanding the groups of a
+   * regular expression.
+   *
+   * @throws IllegalArgumentException if the replacement ends with a backslash
+   *     or has a group reference that is not valid
+   * @throws IndexOutOfBoundsException if the replacement refers to a group
+   *     that does not exist
+   */
+  String replace(final int start, final int end, final String replacement) {
+    final Matcher matcher = this.matcher(start, end);
+    final StringBuffer buffer = new StringBuffer();
+    matcher.appendReplacement(buffer, this.quote(replacement));
+    return buffer.substring(matcher.start());
+  }
+
+  /*
+   * Returns a matcher that matched a range within its line, or null if
+   * the range is not a match. The rest of the line is visible to anchors
+   * and lookarounds, as when the range was found.
+   */
+  Matcher matcher(final int start, final int end) {
+    if ((this.pattern == null) || (end <= start)) {
+      return null;
+    }
+    final int line = this.content.getLineAtOffset(start);
+    final int lineOffset = this.content.getOffsetAtLine(line);
+    final String lineText = this.content.getLine(line);
+    if ((end - lineOffset) > lineText.length()) {
+      return null;
+    }
+    final Matcher matcher = this.pattern.matcher(lineText);
+    matcher.region(start - lineOffset, end - lineOffset);
+    matcher.useTransparentBounds(true);
+    matcher.useAnchoringBounds(false);
+    return matcher.matches() ? matcher : null;
+  }
+
+  /**
+   * Computes the replacement of all matches. The replaced range starts at
+   * the first line with a match and ends with the last match, so it can
+   * be applied to the content in a single change.
+   *
+   * @return the replacement, or null if there is no match
+   * @throws IllegalArgumentException if the replacement ends with a backslash
+   *     or has a group reference that is not valid
+   * @throws IndexOutOfBoundsException if the replacement refers to a group
+   *     that does not exist
+   */
+  Replacement replaceAll(final String replacement) {
+    if (this.pattern == null) {
+      return null;
+    }
+    final String quoted = this.quote(replacement);
+    final Replacement result = new Replacement();
+    final StringBuffer text = new StringBuffer(); // Matcher.appendReplacement takes no StringBuilder in Java 8
+    int end = -1;
+    final int lineCount = this.content.getLineCount();
+    for (int line = 0; line < lineCount; line++) {
+      final String lineText = this.content.getLine(line);
+      final Matcher matcher = this.pattern.matcher(lineText);
+      final int lineOffset = this.content.getOffsetAtLine(line);
+      int appended = 0; // the end of the last match of the line
+      while (matcher.find()) {
+        if (matcher.end() == matcher.start()) {
+          continue;
+        }
+        if (end < 0) {
+          result.start = end = lineOffset;
+        }
+        if (appended == 0) {
+          // the text from the last match on, up to this line
+          text.append(this.content.getTextRange(end, lineOffset - end));
+        }
+        matcher.appendReplacement(text, quoted);
+        appended = matcher.end();
+        result.add(lineOffset + matcher.start(), lineOffset + matcher.end(),
+            result.start + text.length());
+      }
+      if (appended > 0) {
+        end = lineOffset + appended;
+      }
+    }
+    if (result.count == 0) {
+      return null;
+    }
+    result.length = end - result.start;
+    result.text = text.toString();
+    return result;
+  }
+
+  String quote(final String replacement) {
+    return (this.pattern.flags() & Pattern.LITERAL) != 0 ? Matcher.quoteReplacement(replacement)
+        : replacement;
+  }
+}